@@ -0,0 +1,55 @@
+package neuronalnetwork;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time per element of a batch sigmoid, exact against table-driven, on
+ * values spread over the usual range of the neuron inputs. The error of
+ * the table and its effect on the accuracy are checked by ActivationTest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ActivationBenchmark
+{
+	private static final int LENGTH = 4096;
+
+	@Param({ "table", "exact" })
+	public String activation;
+
+	private Activation function;
+	private final float[] in = new float[LENGTH];
+	private final float[] out = new float[LENGTH];
+
+	@Setup
+	public void setup ()
+	{
+		function = activation.equals("exact") ? Activation.EXACT_SIGMOID : Activation.SIGMOID;
+		for (int i=0; i<LENGTH; i++)
+			in[i] = (i - LENGTH / 2) * (24f / LENGTH);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LENGTH)
+	public float[] apply ()
+	{
+		function.apply(in, out, LENGTH);
+		return out;
+	}
+}
@@ -0,0 +1,60 @@
+package neuronalnetwork;
+
+import java.io.File;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Location of the bundled MNIST files and logging setup shared by the
+ * benchmarks.
+ *
+ * The benchmarks read data/mnist relative to the working directory; a
+ * different directory can be given with -Dmnist.dir=...
+ */
+final class BenchmarkData
+{
+	/** Keeps the configured logger from being garbage collected. */
+	private static final Logger LOG = Logger.getLogger("neuronalnetwork");
+
+	private BenchmarkData ()
+	{
+	}
+
+	static String file (String name)
+	{
+		File file = new File(System.getProperty("mnist.dir", "data/mnist"), name);
+		if (!file.isFile())
+			throw new IllegalStateException(file+" not found, run from the repository root or set -Dmnist.dir");
+		return file.getPath();
+	}
+
+	/**
+	 * Test set, the only image set bundled with the repository.
+	 */
+	static Dataset testSet () throws java.io.IOException
+	{
+		return MNISTDatabase.readDataset(file(MNISTDatabase.testImages), file(MNISTDatabase.testLabels));
+	}
+
+	/**
+	 * The loader and the network log every call at INFO level, which would
+	 * end up in the measurements.
+	 */
+	static void quiet ()
+	{
+		LOG.setLevel(Level.WARNING);
+	}
+
+	/**
+	 * Network with random weights and the neurons of every layer before
+	 * the output separated by "x", e.g. "64x32".
+	 */
+	static NeuralNetwork network (String sizes)
+	{
+		String[] parts = sizes.split("x");
+		int[] neurons = new int[parts.length];
+		for (int l=0; l<parts.length; l++)
+			neurons[l] = Integer.parseInt(parts[l]);
+		return new NeuralNetwork(neurons);
+	}
+}
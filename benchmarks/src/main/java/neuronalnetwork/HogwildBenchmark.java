@@ -0,0 +1,53 @@
+package neuronalnetwork;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time of one per-sample training epoch over the test set, serial against
+ * asynchronous Hogwild training with a number of threads. That Hogwild
+ * converges like serial training is checked by HogwildTest.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class HogwildBenchmark
+{
+	@Param({ "1", "2", "4" })
+	public int threads;
+
+	private Dataset data;
+	private NeuralNetwork net;
+
+	@Setup(Level.Trial)
+	public void setup () throws IOException
+	{
+		BenchmarkData.quiet();
+		data = BenchmarkData.testSet();
+		net = BenchmarkData.network("64x32");
+		net.setThreads(threads);
+		net.setHogwild(threads > 1);
+	}
+
+	@Benchmark
+	public int trainEpoch ()
+	{
+		return net.trainEpoch(data);
+	}
+}
@@ -0,0 +1,95 @@
+package neuronalnetwork;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of the bundled gzipped IDX files, 10000 test images, and the
+ * {@link DatasetCache} of the same files: opening it and normalizing every
+ * cached image, as an epoch does. Run with -prof gc to see what each
+ * allocates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class LoaderBenchmark
+{
+	private String images;
+	private String labels;
+	private Path cache;
+	private Dataset cached;
+	private float[] image;
+
+	@Setup
+	public void setup () throws IOException
+	{
+		BenchmarkData.quiet();
+		images = BenchmarkData.file(MNISTDatabase.testImages);
+		labels = BenchmarkData.file(MNISTDatabase.testLabels);
+		cache = Files.createTempFile("loader", ".cache");
+		Files.delete(cache);
+		cached = openCache();
+		image = new float[cached.imageSize()];
+	}
+
+	@TearDown
+	public void tearDown () throws IOException
+	{
+		Files.deleteIfExists(cache);
+	}
+
+	@Benchmark
+	public int[][][] readImages () throws IOException
+	{
+		return MNISTDatabase.readImages(images);
+	}
+
+	@Benchmark
+	public float[] readImagesNormalized () throws IOException
+	{
+		return MNISTDatabase.readImagesNormalized(images);
+	}
+
+	@Benchmark
+	public byte[] readImagesRaw () throws IOException
+	{
+		return MNISTDatabase.readImagesRaw(images);
+	}
+
+	@Benchmark
+	public int[] readLabels () throws IOException
+	{
+		return MNISTDatabase.readLabels(labels);
+	}
+
+	@Benchmark
+	public Dataset openCache () throws IOException
+	{
+		return DatasetCache.open(images, labels, cache.toString()).dataset();
+	}
+
+	@Benchmark
+	public float[] normalizeCache ()
+	{
+		for (int i=0; i<cached.size(); i++)
+			cached.normalize(i, image, 0);
+		return image;
+	}
+}
@@ -0,0 +1,94 @@
+package neuronalnetwork;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Inference through one shared {@link Model}: latency of a single
+ * prediction, with one thread and with every core calling the same
+ * instance, and of a block of {@link Model#BATCH} predictions. The same
+ * single prediction with the weights stored as bfloat16 shows what halving
+ * the bytes read per prediction is worth.
+ *
+ * The hidden layer sizes are a parameter, "input x hidden" neurons.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ModelBenchmark
+{
+	@Param({ "64x32", "256x128" })
+	public String sizes;
+
+	private Model model;
+	private Bfloat16Model half;
+	private float[] pixels;
+	private int imageSize;
+	private int images;
+
+	@State(Scope.Thread)
+	public static class Buffers
+	{
+		int index;
+		final int[] predictions = new int[Model.BATCH];
+	}
+
+	@Setup(Level.Trial)
+	public void setup () throws IOException
+	{
+		BenchmarkData.quiet();
+		Dataset data = BenchmarkData.testSet();
+		model = BenchmarkData.network(sizes).toModel();
+		half = model.toBfloat16();
+		imageSize = data.imageSize();
+		images = data.size() - data.size() % Model.BATCH;
+		pixels = new float[images * imageSize];
+		for (int i=0; i<images; i++)
+			data.normalize(i, pixels, i * imageSize);
+	}
+
+	@Benchmark
+	public int predict (Buffers buffers)
+	{
+		buffers.index = (buffers.index + 1) % images;
+		return model.predict(pixels, buffers.index * imageSize);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public int predictShared (Buffers buffers)
+	{
+		return predict(buffers);
+	}
+
+	@Benchmark
+	public int predictBfloat16 (Buffers buffers)
+	{
+		buffers.index = (buffers.index + 1) % images;
+		return half.predict(pixels, buffers.index * imageSize);
+	}
+
+	@Benchmark
+	public int[] predictBatch (Buffers buffers)
+	{
+		model.predictBatch(pixels, Model.BATCH, buffers.predictions);
+		return buffers.predictions;
+	}
+}
@@ -0,0 +1,69 @@
+package neuronalnetwork;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hot paths of the network: forward pass of one image, one per-sample
+ * training step and a full evaluation of the test set.
+ *
+ * The topology is a parameter, the neurons of every layer before the
+ * output separated by "x".
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class NetworkBenchmark
+{
+	@Param({ "64x32", "128x64", "256x128", "32", "64x32x16" })
+	public String sizes;
+
+	private Dataset data;
+	private NeuralNetwork net;
+	private int index;
+
+	@Setup(Level.Trial)
+	public void setup () throws IOException
+	{
+		BenchmarkData.quiet();
+		data = BenchmarkData.testSet();
+		net = BenchmarkData.network(sizes);
+	}
+
+	@Benchmark
+	public int forward ()
+	{
+		index = (index + 1) % data.size();
+		return net.testImage(data, index);
+	}
+
+	@Benchmark
+	public void trainImage ()
+	{
+		index = (index + 1) % data.size();
+		net.trainImage(data, index);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int testNetwork ()
+	{
+		return net.evaluate(data);
+	}
+}
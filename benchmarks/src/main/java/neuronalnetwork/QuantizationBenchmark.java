@@ -0,0 +1,87 @@
+package neuronalnetwork;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time per image of the float, int8 and bfloat16 models classifying the
+ * first {@link #IMAGES} test images in blocks. The int8 model reads the
+ * raw pixels, the others the normalized ones. That the int8 and bfloat16
+ * models keep the accuracy of the float one and predict the same after
+ * being saved is checked by QuantizationTest.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class QuantizationBenchmark
+{
+	static final int IMAGES = 8192;
+
+	@Param({ "64x32", "256x128" })
+	public String sizes;
+
+	private Model model;
+	private QuantizedModel quantized;
+	private Bfloat16Model half;
+	private float[] images;
+	private byte[] raw;
+	private final int[] predictions = new int[IMAGES];
+
+	@Setup(Level.Trial)
+	public void setup () throws IOException
+	{
+		BenchmarkData.quiet();
+		Dataset data = BenchmarkData.testSet();
+		model = BenchmarkData.network(sizes).toModel();
+		quantized = model.quantize();
+		half = model.toBfloat16();
+		int imageSize = data.imageSize();
+		images = new float[IMAGES * imageSize];
+		raw = new byte[images.length];
+		for (int n=0; n<IMAGES; n++)
+			data.normalize(n, images, n * imageSize);
+		for (int k=0; k<raw.length; k++)
+			raw[k] = (byte) Math.round(images[k] * 255f);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(IMAGES)
+	public int[] predictFloat ()
+	{
+		model.predictBatch(images, IMAGES, predictions);
+		return predictions;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(IMAGES)
+	public int[] predictInt8 ()
+	{
+		quantized.predictBatch(raw, IMAGES, predictions);
+		return predictions;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(IMAGES)
+	public int[] predictBfloat16 ()
+	{
+		half.predictBatch(images, IMAGES, predictions);
+		return predictions;
+	}
+}
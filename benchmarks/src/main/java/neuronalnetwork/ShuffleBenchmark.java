@@ -0,0 +1,58 @@
+package neuronalnetwork;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time of one per-sample training epoch over the test set in the data set
+ * order and shuffled, with the input prepared on the training thread and
+ * on the background prefetch thread. That the prefetch thread gives the
+ * same weights is checked by ShuffleTest.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ShuffleBenchmark
+{
+	@Param({ "true", "false" })
+	public boolean shuffle;
+
+	@Param({ "true", "false" })
+	public boolean prefetch;
+
+	private Dataset data;
+	private NeuralNetwork net;
+
+	@Setup(Level.Trial)
+	public void setup () throws IOException
+	{
+		BenchmarkData.quiet();
+		data = BenchmarkData.testSet();
+		data.nonzeros();
+		net = BenchmarkData.network("64x32");
+		net.setShuffle(shuffle);
+		net.setPrefetch(prefetch);
+	}
+
+	@Benchmark
+	public int trainEpoch ()
+	{
+		return net.trainEpoch(data);
+	}
+}
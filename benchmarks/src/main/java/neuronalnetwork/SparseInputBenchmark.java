@@ -0,0 +1,57 @@
+package neuronalnetwork;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time of one per-sample training epoch over the test set with the dense
+ * input layer and with the sparse one, which only walks the nonzero
+ * pixels. That both end with the same weights up to rounding is checked
+ * by SparseInputTest.
+ *
+ * Like every benchmark it reads the bundled test split from data/mnist or
+ * from -Dmnist.dir=...
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class SparseInputBenchmark
+{
+	@Param({ "dense", "sparse" })
+	public String input;
+
+	private Dataset data;
+	private NeuralNetwork net;
+
+	@Setup(Level.Trial)
+	public void setup () throws IOException
+	{
+		BenchmarkData.quiet();
+		data = BenchmarkData.testSet();
+		data.nonzeros();
+		net = BenchmarkData.network("64x32");
+		net.setSparseInput(input.equals("sparse"));
+	}
+
+	@Benchmark
+	public int trainEpoch ()
+	{
+		return net.trainEpoch(data);
+	}
+}
@@ -0,0 +1,74 @@
+package neuronalnetwork;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Saving and loading the weights, in the binary checkpoint format and in
+ * the original text format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class WeightsBenchmark
+{
+	@Param({ "64x32", "256x128" })
+	public String sizes;
+
+	@Param({ "binary", "text" })
+	public String format;
+
+	private NeuralNetwork net;
+	private NeuralNetwork loaded;
+	private File file;
+
+	@Setup(Level.Trial)
+	public void setup () throws IOException
+	{
+		BenchmarkData.quiet();
+		net = BenchmarkData.network(sizes);
+		loaded = new NeuralNetwork(false);
+		file = File.createTempFile("weights", format.equals("binary") ? ".bin" : ".txt");
+		saveWeights();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown ()
+	{
+		file.delete();
+	}
+
+	@Benchmark
+	public void saveWeights () throws IOException
+	{
+		if (format.equals("binary"))
+			net.saveWeights(file.getPath());
+		else
+			net.saveWeightsText(file.getPath());
+	}
+
+	@Benchmark
+	public NeuralNetwork loadWeights () throws IOException
+	{
+		loaded.loadWeights(file.getPath());
+		return loaded;
+	}
+}
@@ -0,0 +1,65 @@
+package neuronalnetwork;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ActivationTest {
+	/** Bound documented in {@link TableSigmoid}. */
+	private static final double MAX_ERROR = 1.5e-6;
+
+	/*
+	 * Every 2^-12 over [-20, 20], tails included, and every float in
+	 * [0.9, 1.3], around the largest error, 9.5e-7 at x = 0.98.
+	 */
+	@Test
+	void tableSigmoidStaysWithinItsBound(){
+		double max = 0;
+		for(float x=-20f; x<=20f; x+=1f / 4096){
+			max = Math.max(max, error(x));
+		}
+		for(float x=0.9f; x<=1.3f; x=Math.nextUp(x)){
+			max = Math.max(max, error(x));
+		}
+		assertTrue(max < MAX_ERROR, "maximum error " + max);
+	}
+
+	@Test
+	void batchApplyMatchesSingleValues(){
+		float[] in = new float[4099];
+		for(int i=0; i<in.length; ++i){
+			in[i] = (i - in.length / 2) * (40f / in.length);
+		}
+		float[] out = new float[in.length];
+		Activation.SIGMOID.apply(in, out);
+		for(int i=0; i<in.length; ++i){
+			assertEquals(Activation.SIGMOID.apply(in[i]), out[i], (float) MAX_ERROR, "x = " + in[i]);
+		}
+	}
+
+	/*
+	 * Two epochs from the same weights, then accuracy on the images left
+	 * out: the table must cost at most half a point.
+	 */
+	@Test
+	void tableSigmoidTrainsLikeExactSigmoid(){
+		Dataset train = Datasets.training();
+		Dataset test = Datasets.evaluation();
+		NeuralNetwork table = new NeuralNetwork(new int[]{ 64, 32 });
+		NeuralNetwork exact = Networks.copy(table);
+		exact.setActivation(Activation.EXACT_SIGMOID);
+		for(int e=0; e<2; ++e){
+			table.trainEpoch(train);
+			exact.trainEpoch(train);
+		}
+		float tableAccuracy = (float) table.evaluate(test) / test.size();
+		float exactAccuracy = (float) exact.evaluate(test) / test.size();
+		assertTrue(exactAccuracy > 0.85f, "exact sigmoid accuracy " + exactAccuracy);
+		assertEquals(exactAccuracy, tableAccuracy, 0.005f);
+	}
+
+	private static double error(float x){
+		return Math.abs((double) Activation.SIGMOID.apply(x) - Activation.EXACT_SIGMOID.apply(x));
+	}
+}
@@ -0,0 +1,58 @@
+package neuronalnetwork;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class CheckpointTest {
+
+	@Test
+	void trainingStateIsNeverBfloat16(){
+		Checkpoint checkpoint = new NeuralNetwork(new int[]{ 16 }).checkpoint(0);
+		assertThrows(IllegalArgumentException.class, () -> new Checkpoint(checkpoint.sizes, checkpoint.weights,
+				checkpoint.weightErrors, checkpoint.state, true));
+	}
+
+	/*
+	 * A file whose header claims both flags is rejected before resume()
+	 * could continue from rounded weights and momentum.
+	 */
+	@Test
+	void resumeRejectsBfloat16TrainingState(@TempDir File dir) throws IOException{
+		File file = new File(dir, "checkpoint.bin");
+		new NeuralNetwork(new int[]{ 16 }).checkpoint(0).write(file.getPath());
+		try(RandomAccessFile header = new RandomAccessFile(file, "rw")){
+			header.seek(2 * Integer.BYTES);
+			header.writeInt(Integer.reverseBytes(Checkpoint.FLAG_TRAINING | Checkpoint.FLAG_BFLOAT16));
+		}
+		NeuralNetwork network = new NeuralNetwork(new int[]{ 16 });
+		IOException e = assertThrows(IOException.class, () -> network.resume(file.getPath()));
+		assertTrue(e.getMessage().startsWith("Unsupported checkpoint flags"), e.getMessage());
+	}
+
+	/*
+	 * Layer counts whose sizes would need more bytes than the file has,
+	 * including the ones that overflow an int when multiplied by 4.
+	 */
+	@ParameterizedTest(name = "{0} layers")
+	@ValueSource(ints = { 3, Integer.MAX_VALUE, 0x3FFFFFFF, 0x40000000 })
+	void rejectsLayerCountBeyondTheFile(int layers, @TempDir File dir) throws IOException{
+		File file = new File(dir, "checkpoint.bin");
+		new NeuralNetwork(new int[]{ 16 }).checkpoint(0).write(file.getPath());
+		try(RandomAccessFile header = new RandomAccessFile(file, "rw")){
+			header.setLength(4 * Integer.BYTES + Integer.BYTES + Long.BYTES);
+			header.seek(3 * Integer.BYTES);
+			header.writeInt(Integer.reverseBytes(layers));
+		}
+		IOException e = assertThrows(IOException.class, () -> Checkpoint.read(file.getPath()));
+		assertTrue(e.getMessage().startsWith("Corrupt checkpoint header"), e.getMessage());
+	}
+}
@@ -0,0 +1,60 @@
+package neuronalnetwork;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DatasetCacheTest {
+	private static final String DIR = System.getProperty("mnist.dir", "../data/mnist");
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void servesTheRawPixelsOfTheIdxFiles() throws IOException{
+		Path cache = directory.resolve("test.cache");
+		open(cache);
+		DatasetCache mapped = open(cache);
+		Dataset expected = Datasets.testSet();
+		assertEquals(64 + (long) expected.size() * (expected.imageSize() + 1), Files.size(cache));
+		assertEquals(expected.size(), mapped.size());
+
+		Dataset actual = mapped.dataset();
+		float[] a = new float[expected.imageSize()];
+		float[] b = new float[expected.imageSize()];
+		for(int i=0; i<expected.size(); ++i){
+			expected.normalize(i, a, 0);
+			actual.normalize(i, b, 0);
+			assertArrayEquals(a, b, "image " + i);
+			assertEquals(expected.label(i), actual.label(i), "label " + i);
+		}
+	}
+
+	@Test
+	void rebuildsCachesOfAnotherVersion() throws IOException{
+		Path cache = directory.resolve("test.cache");
+		open(cache);
+		try(RandomAccessFile file = new RandomAccessFile(cache.toFile(), "rw")){
+			file.seek(Integer.BYTES);
+			file.writeInt(Integer.reverseBytes(1));
+		}
+		assertEquals(Datasets.testSet().size(), open(cache).size());
+		try(RandomAccessFile file = new RandomAccessFile(cache.toFile(), "r")){
+			file.seek(Integer.BYTES);
+			assertEquals(2, Integer.reverseBytes(file.readInt()));
+		}
+	}
+
+	private static DatasetCache open(Path cache) throws IOException{
+		return DatasetCache.open(new File(DIR, MNISTDatabase.testImages).getPath(),
+				new File(DIR, MNISTDatabase.testLabels).getPath(), cache.toString());
+	}
+}
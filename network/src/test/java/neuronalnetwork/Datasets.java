@@ -0,0 +1,51 @@
+package neuronalnetwork;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The bundled MNIST test split, read once for every test. Surefire runs in
+ * the network module, so the data is in ../data/mnist unless -Dmnist.dir
+ * says otherwise.
+ *
+ * The training tests train on its first {@link #TRAINING} images and
+ * evaluate on the rest.
+ */
+final class Datasets {
+	static final int TRAINING = 8000;
+
+	private static Dataset testSet;
+
+	private Datasets(){
+	}
+
+	static synchronized Dataset testSet(){
+		if(testSet == null){
+			String dir = System.getProperty("mnist.dir", "../data/mnist");
+			try{
+				testSet = MNISTDatabase.readDataset(new File(dir, MNISTDatabase.testImages).getPath(),
+						new File(dir, MNISTDatabase.testLabels).getPath());
+			}catch(IOException e){
+				throw new UncheckedIOException(e);
+			}
+		}
+		return testSet;
+	}
+
+	static Dataset training(){
+		return testSet().subset(range(0, TRAINING));
+	}
+
+	static Dataset evaluation(){
+		return testSet().subset(range(TRAINING, testSet().size()));
+	}
+
+	private static int[] range(int from, int to){
+		int[] indices = new int[to - from];
+		for(int i=0; i<indices.length; ++i){
+			indices[i] = from + i;
+		}
+		return indices;
+	}
+}
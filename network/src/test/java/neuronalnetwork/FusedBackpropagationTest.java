@@ -0,0 +1,29 @@
+package neuronalnetwork;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class FusedBackpropagationTest {
+
+	/*
+	 * The fused sweep reads each weight before updating it and computes the
+	 * same products in the same order, so weights and momentum must match
+	 * the separate passes bit for bit.
+	 */
+	@ParameterizedTest(name = "sparse input {0}")
+	@ValueSource(booleans = { false, true })
+	void matchesSeparatePassesBitForBit(boolean sparseInput){
+		NeuralNetwork separate = new NeuralNetwork(new int[]{ 64, 32 });
+		NeuralNetwork fused = Networks.copy(separate);
+		separate.setSparseInput(sparseInput);
+		separate.setFusedBackpropagation(false);
+		fused.setSparseInput(sparseInput);
+		fused.setFusedBackpropagation(true);
+		Dataset data = Datasets.training();
+		for(int e=0; e<2; ++e){
+			separate.trainEpoch(data);
+			fused.trainEpoch(data);
+			Networks.assertSameState(separate, fused);
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package neuronalnetwork;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class HogwildTest {
+
+	/*
+	 * Lock-free updates from four threads lose a few updates to races but
+	 * must converge at least like serial training from the same weights;
+	 * over repeated runs Hogwild ends between 0.7 points below and 2.3
+	 * points above.
+	 */
+	@Test
+	void convergesLikeSerialTraining(){
+		Dataset train = Datasets.training();
+		Dataset test = Datasets.evaluation();
+		NeuralNetwork serial = new NeuralNetwork(new int[]{ 64, 32 });
+		float serialAccuracy;
+		float hogwildAccuracy;
+		try(NeuralNetwork hogwild = Networks.copy(serial)){
+			hogwild.setThreads(4);
+			hogwild.setHogwild(true);
+			for(int e=0; e<2; ++e){
+				serial.trainEpoch(train);
+				hogwild.trainEpoch(train);
+			}
+			serialAccuracy = (float) serial.evaluate(test) / test.size();
+			hogwildAccuracy = (float) hogwild.evaluate(test) / test.size();
+		}
+		assertTrue(serialAccuracy > 0.85f, "serial accuracy " + serialAccuracy);
+		assertTrue(hogwildAccuracy > serialAccuracy - 0.02f, "hogwild accuracy " + hogwildAccuracy + ", serial " + serialAccuracy);
+	}
+}
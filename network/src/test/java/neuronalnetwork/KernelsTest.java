@@ -0,0 +1,176 @@
+package neuronalnetwork;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The vector kernels against the scalar ones on every length up to a few
+ * vectors, so every tail length is covered, plus the layer sizes of the
+ * default network. Element-wise kernels must match bit for bit; the dot
+ * products only change the order of the sum.
+ */
+class KernelsTest {
+	private static final int[] LENGTHS = IntStream.concat(IntStream.rangeClosed(0, 70),
+			IntStream.of(127, 128, 129, 255, 256, 257, 784)).toArray();
+
+	private final Kernels scalar = new ScalarKernels();
+	private final Kernels vector = new VectorKernels();
+	private final Random random = new Random(42);
+
+	@Test
+	void dot(){
+		for(int length : LENGTHS){
+			float[] a = random(length + 3);
+			float[] b = random(length + 5);
+			assertEquals(scalar.dot(a, 3, b, 5, length), vector.dot(a, 3, b, 5, length),
+					tolerance(a, 3, b, 5, length), "length " + length);
+		}
+	}
+
+	@Test
+	void dot4(){
+		for(int length : LENGTHS){
+			float[] a = random(length + 3);
+			float[] b = random(4 * length + 1);
+			float[] expected = new float[8];
+			float[] actual = new float[8];
+			scalar.dot4(a, 3, b, 1, length, length, expected, 1, 2);
+			vector.dot4(a, 3, b, 1, length, length, actual, 1, 2);
+			for(int j=0; j<4; ++j){
+				int bOffset = 1 + j * length;
+				assertEquals(vector.dot(a, 3, b, bOffset, length), actual[1 + 2 * j], 0f, "length " + length);
+				assertEquals(expected[1 + 2 * j], actual[1 + 2 * j], tolerance(a, 3, b, bOffset, length), "length " + length);
+			}
+			assertEquals(0f, actual[0]);
+		}
+	}
+
+	@Test
+	void dotBfloat16(){
+		for(int length : LENGTHS){
+			float[] a = random(length + 3);
+			float[] b = random(length + 5);
+			short[] half = Bfloat16.fromFloats(a);
+			assertEquals(scalar.dot(half, 3, b, 5, length), vector.dot(half, 3, b, 5, length),
+					tolerance(Bfloat16.toFloats(half), 3, b, 5, length), "length " + length);
+		}
+	}
+
+	@Test
+	void accumulate(){
+		for(int length : LENGTHS){
+			byte[] weights = new byte[length + 3];
+			random.nextBytes(weights);
+			int[] expected = new int[length];
+			int[] actual = new int[length];
+			for(int factor : new int[]{255, -7, 0, 1}){
+				scalar.accumulate(weights, 3, factor, expected, length);
+				vector.accumulate(weights, 3, factor, actual, length);
+			}
+			assertArrayEquals(expected, actual, "length " + length);
+		}
+	}
+
+	@Test
+	void momentum(){
+		for(int length : LENGTHS){
+			float[] in = random(length + 3);
+			float[] expected = random(length + 2);
+			float[] actual = expected.clone();
+			scalar.momentum(expected, 2, in, 3, length, 0.7f, 0.017f, 0.9f);
+			vector.momentum(actual, 2, in, 3, length, 0.7f, 0.017f, 0.9f);
+			assertBitEquals(expected, actual, length);
+		}
+	}
+
+	@Test
+	void update(){
+		for(int length : LENGTHS){
+			float[] gradient = random(length);
+			float[] expectedWeights = random(length);
+			float[] expectedError = clipping(length);
+			float[] actualWeights = expectedWeights.clone();
+			float[] actualError = expectedError.clone();
+			scalar.update(expectedWeights, expectedError, gradient, 0.017f, 0.9f);
+			vector.update(actualWeights, actualError, gradient, 0.017f, 0.9f);
+			assertBitEquals(expectedWeights, actualWeights, length);
+			assertBitEquals(expectedError, actualError, length);
+		}
+	}
+
+	@Test
+	void adjust(){
+		for(int length : LENGTHS){
+			float[] error = clipping(length + 1);
+			float[] expected = random(length + 1);
+			float[] actual = expected.clone();
+			scalar.adjust(expected, error, 1, length);
+			vector.adjust(actual, error, 1, length);
+			assertBitEquals(expected, actual, length);
+		}
+	}
+
+	@Test
+	void fused(){
+		for(int length : LENGTHS){
+			float[] in = random(length + 3);
+			float[] expectedWeights = random(length + 1);
+			float[] expectedError = clipping(length + 1);
+			float[] expectedBack = random(length + 2);
+			float[] actualWeights = expectedWeights.clone();
+			float[] actualError = expectedError.clone();
+			float[] actualBack = expectedBack.clone();
+			scalar.fused(expectedWeights, expectedError, 1, in, 3, length, -0.4f, 0.017f, 0.9f, expectedBack, 2);
+			vector.fused(actualWeights, actualError, 1, in, 3, length, -0.4f, 0.017f, 0.9f, actualBack, 2);
+			scalar.fused(expectedWeights, expectedError, 1, in, 3, length, 0.3f, 0.017f, 0.9f, null, 0);
+			vector.fused(actualWeights, actualError, 1, in, 3, length, 0.3f, 0.017f, 0.9f, null, 0);
+			assertBitEquals(expectedWeights, actualWeights, length);
+			assertBitEquals(expectedError, actualError, length);
+			assertBitEquals(expectedBack, actualBack, length);
+		}
+	}
+
+	private float[] random(int length){
+		float[] values = new float[length];
+		for(int i=0; i<length; ++i){
+			values[i] = random.nextFloat() * 2f - 1f;
+		}
+		return values;
+	}
+
+	/*
+	 * Weight errors where every seventh element pushes its weight out of
+	 * (-1, 1), so the clip is exercised.
+	 */
+	private float[] clipping(int length){
+		float[] error = random(length);
+		for(int i=0; i<length; i+=7){
+			error[i] = (i % 2 == 0) ? 1.5f : -1.5f;
+		}
+		return error;
+	}
+
+	/*
+	 * Bound of the rounding error of a float sum of length products, in any
+	 * order.
+	 */
+	private static float tolerance(float[] a, int aOffset, float[] b, int bOffset, int length){
+		double sum = 0;
+		for(int k=0; k<length; ++k){
+			sum += Math.abs((double) a[aOffset + k] * b[bOffset + k]);
+		}
+		return (float) (length * Math.ulp(1f) * sum);
+	}
+
+	private static void assertBitEquals(float[] expected, float[] actual, int length){
+		for(int i=0; i<expected.length; ++i){
+			assertEquals(Float.floatToIntBits(expected[i]), Float.floatToIntBits(actual[i]),
+					"length " + length + ", element " + i);
+		}
+	}
+}
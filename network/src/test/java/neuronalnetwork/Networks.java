@@ -0,0 +1,62 @@
+package neuronalnetwork;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Copies and comparisons of network weights in memory, shared by the tests
+ * that train two networks from the same starting point.
+ */
+final class Networks {
+	private Networks(){
+	}
+
+	/**
+	 * Independent network with a copy of the weights, the shuffling
+	 * generator, the activation and the output layer of another, and no
+	 * momentum. Every other setting is the default.
+	 */
+	static NeuralNetwork copy(NeuralNetwork network){
+		return network.snapshot();
+	}
+
+	/**
+	 * Weights and momentum equal bit for bit, as well as the samples trained
+	 * and the shuffling generator.
+	 */
+	static void assertSameState(NeuralNetwork expected, NeuralNetwork actual){
+		Checkpoint a = expected.checkpoint(0);
+		Checkpoint b = actual.checkpoint(0);
+		assertArrayEquals(a.sizes, b.sizes, "layer sizes");
+		for(int l=0; l<a.weights.length; ++l){
+			assertBitEquals(a.weights[l], b.weights[l], "weights of layer " + l);
+			assertBitEquals(a.weightErrors[l], b.weightErrors[l], "momentum of layer " + l);
+		}
+		assertEquals(a.state.samples, b.state.samples, "samples trained");
+		assertEquals(a.state.randomState, b.state.randomState, "shuffling generator");
+	}
+
+	/**
+	 * Largest absolute difference between the weights of two networks of
+	 * the same topology.
+	 */
+	static float maxWeightDifference(NeuralNetwork a, NeuralNetwork b){
+		float[][] x = a.checkpoint(0).weights;
+		float[][] y = b.checkpoint(0).weights;
+		float max = 0f;
+		for(int l=0; l<x.length; ++l){
+			for(int i=0; i<x[l].length; ++i){
+				max = Math.max(max, Math.abs(x[l][i] - y[l][i]));
+			}
+		}
+		return max;
+	}
+
+	private static void assertBitEquals(float[] expected, float[] actual, String what){
+		assertEquals(expected.length, actual.length, what);
+		for(int i=0; i<expected.length; ++i){
+			if(Float.floatToIntBits(expected[i]) != Float.floatToIntBits(actual[i]))
+				assertEquals(expected[i], actual[i], what + ", element " + i);
+		}
+	}
+}
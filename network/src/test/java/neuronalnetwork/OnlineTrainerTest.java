@@ -0,0 +1,43 @@
+package neuronalnetwork;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class OnlineTrainerTest {
+	private static final int IMAGE_SIZE = 28 * 28;
+
+	@Test
+	void learnsWithoutReservoir(){
+		OnlineTrainer trainer = new OnlineTrainer(new NeuralNetwork(new int[]{ 16 }), 0);
+		trainer.setUpdateSize(4);
+		Model before = trainer.model();
+		trainer.learn(samples(10, 1));
+		trainer.learn(samples(10, 2));
+		assertEquals(6, trainer.updates());
+		assertNotSame(before, trainer.model());
+	}
+
+	@Test
+	void replaysOnceReservoirHoldsSamples(){
+		OnlineTrainer trainer = new OnlineTrainer(new NeuralNetwork(new int[]{ 16 }), 3);
+		trainer.setReplayRatio(2);
+		trainer.learn(samples(10, 1));
+		trainer.learn(samples(10, 2));
+		assertEquals(2, trainer.updates());
+	}
+
+	private static Dataset samples(int count, long seed){
+		Random random = new Random(seed);
+		byte[] pixels = new byte[count * IMAGE_SIZE];
+		random.nextBytes(pixels);
+		int[] labels = new int[count];
+		for(int i=0; i<count; ++i){
+			labels[i] = random.nextInt(10);
+		}
+		return Dataset.ofPixels(pixels, labels, IMAGE_SIZE);
+	}
+}
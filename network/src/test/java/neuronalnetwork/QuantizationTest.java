@@ -0,0 +1,119 @@
+package neuronalnetwork;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class QuantizationTest {
+	/*
+	 * Largest drop in accuracy allowed to the int8 and bfloat16 models, and
+	 * smallest share of their predictions that must agree with the float
+	 * model's.
+	 */
+	private static final float MAX_ACCURACY_DROP = 0.005f;
+	private static final float MIN_AGREEMENT = 0.99f;
+
+	private static Model model;
+	private static Dataset data;
+	private static float[] images;
+	private static byte[] raw;
+	private static int[] expected;
+
+	@BeforeAll
+	static void train(){
+		NeuralNetwork network = new NeuralNetwork(new int[]{ 64, 32 });
+		for(int e=0; e<2; ++e){
+			network.trainEpoch(Datasets.training());
+		}
+		model = network.toModel();
+		data = Datasets.evaluation();
+		int imageSize = model.getInputSize();
+		images = new float[data.size() * imageSize];
+		raw = new byte[images.length];
+		for(int n=0; n<data.size(); ++n){
+			data.normalize(n, images, n * imageSize);
+		}
+		for(int k=0; k<raw.length; ++k){
+			raw[k] = (byte) Math.round(images[k] * 255f);
+		}
+		expected = new int[data.size()];
+		model.predictBatch(images, data.size(), expected);
+	}
+
+	@Test
+	void int8KeepsTheAccuracy(){
+		int[] predictions = new int[data.size()];
+		model.quantize().predictBatch(raw, data.size(), predictions);
+		assertCloseTo(predictions, "int8");
+	}
+
+	@Test
+	void bfloat16KeepsTheAccuracy(){
+		int[] predictions = new int[data.size()];
+		model.toBfloat16().predictBatch(images, data.size(), predictions);
+		assertCloseTo(predictions, "bfloat16");
+	}
+
+	@Test
+	void savedModelsPredictTheSame(@TempDir File dir) throws IOException{
+		QuantizedModel quantized = model.quantize();
+		String file = new File(dir, "pesos.bin.q8").getPath();
+		quantized.write(file);
+		int[] inMemory = new int[data.size()];
+		int[] read = new int[data.size()];
+		quantized.predictBatch(raw, data.size(), inMemory);
+		QuantizedModel.read(file).predictBatch(raw, data.size(), read);
+		assertArrayEquals(inMemory, read, "int8");
+
+		Bfloat16Model half = model.toBfloat16();
+		file = new File(dir, "pesos.bin.bf16").getPath();
+		half.write(file);
+		half.predictBatch(images, data.size(), inMemory);
+		Bfloat16Model.read(file).predictBatch(images, data.size(), read);
+		assertArrayEquals(inMemory, read, "bfloat16");
+	}
+
+	/*
+	 * Layer counts whose sizes would need more bytes than the file has,
+	 * including the ones that overflow an int when multiplied by 4.
+	 */
+	@ParameterizedTest(name = "{0} layers")
+	@ValueSource(ints = { 3, Integer.MAX_VALUE, 0x3FFFFFFF, 0x40000000 })
+	void rejectsLayerCountBeyondTheFile(int layers, @TempDir File dir) throws IOException{
+		File file = new File(dir, "pesos.bin.q8");
+		model.quantize().write(file.getPath());
+		try(RandomAccessFile header = new RandomAccessFile(file, "rw")){
+			header.setLength(4 * Integer.BYTES + Integer.BYTES + Long.BYTES);
+			header.seek(3 * Integer.BYTES);
+			header.writeInt(Integer.reverseBytes(layers));
+		}
+		IOException e = assertThrows(IOException.class, () -> QuantizedModel.read(file.getPath()));
+		assertTrue(e.getMessage().startsWith("Corrupt quantized model header"), e.getMessage());
+	}
+
+	private static void assertCloseTo(int[] predictions, String name){
+		int hits = 0, expectedHits = 0, agree = 0;
+		for(int n=0; n<predictions.length; ++n){
+			if(predictions[n] == data.label(n))
+				++hits;
+			if(expected[n] == data.label(n))
+				++expectedHits;
+			if(predictions[n] == expected[n])
+				++agree;
+		}
+		float drop = (float) (expectedHits - hits) / predictions.length;
+		float agreement = (float) agree / predictions.length;
+		assertTrue(drop <= MAX_ACCURACY_DROP, name + " accuracy drops by " + drop);
+		assertTrue(agreement >= MIN_AGREEMENT, name + " agrees with float on " + agreement);
+	}
+}
@@ -0,0 +1,40 @@
+package neuronalnetwork;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class ResumeTest {
+
+	/*
+	 * Training stopped after two epochs and resumed from the checkpoint for
+	 * two more must end where four epochs in a row do: same weights, same
+	 * momentum and the shuffling generator at the same point.
+	 */
+	@ParameterizedTest(name = "batch size {0}")
+	@ValueSource(ints = { 1, 32 })
+	void resumesBitForBit(int batchSize, @TempDir File dir) throws IOException{
+		NeuralNetwork uninterrupted = network(batchSize, 4);
+		uninterrupted.trainNetwork(Datasets.training(), Datasets.evaluation());
+
+		String checkpoint = new File(dir, "checkpoint.bin").getPath();
+		NeuralNetwork interrupted = network(batchSize, 2);
+		interrupted.setCheckpoint(checkpoint, 1);
+		interrupted.trainNetwork(Datasets.training(), Datasets.evaluation());
+
+		NeuralNetwork resumed = network(batchSize, 4);
+		resumed.resume(checkpoint);
+		resumed.trainNetwork(Datasets.training(), Datasets.evaluation());
+		Networks.assertSameState(uninterrupted, resumed);
+	}
+
+	private static NeuralNetwork network(int batchSize, int epochs){
+		NeuralNetwork network = new NeuralNetwork(new int[]{ 16 });
+		network.setBatchSize(batchSize);
+		network.setEpochs(epochs);
+		return network;
+	}
+}
@@ -0,0 +1,57 @@
+package neuronalnetwork;
+
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class ShuffleTest {
+
+	/*
+	 * The prefetch thread only moves the shuffling and normalization off
+	 * the training thread: the samples and their order must be the same.
+	 */
+	@ParameterizedTest(name = "batch size {0}")
+	@ValueSource(ints = { 1, 32 })
+	void prefetchTrainsLikeTheTrainingThread(int batchSize){
+		NeuralNetwork inline = new NeuralNetwork(new int[]{ 64, 32 });
+		NeuralNetwork prefetched = Networks.copy(inline);
+		inline.setBatchSize(batchSize);
+		inline.setPrefetch(false);
+		prefetched.setBatchSize(batchSize);
+		prefetched.setPrefetch(true);
+		Dataset data = Datasets.training();
+		for(int e=0; e<2; ++e){
+			inline.trainEpoch(data);
+			prefetched.trainEpoch(data);
+			Networks.assertSameState(inline, prefetched);
+		}
+	}
+
+	@Test
+	void seedSetsTheInitialWeights(){
+		NeuralNetwork first = new NeuralNetwork(new int[]{ 16 }, 7);
+		NeuralNetwork same = new NeuralNetwork(new int[]{ 16 }, 7);
+		NeuralNetwork other = new NeuralNetwork(new int[]{ 16 }, 8);
+		Networks.assertSameState(first, same);
+		assertNotEquals(0f, Networks.maxWeightDifference(first, other));
+	}
+
+	@Test
+	void seedSetsTheOrder(){
+		NeuralNetwork first = new NeuralNetwork(new int[]{ 16 });
+		NeuralNetwork same = Networks.copy(first);
+		NeuralNetwork other = Networks.copy(first);
+		first.setSeed(7);
+		same.setSeed(7);
+		other.setSeed(8);
+		Dataset data = Datasets.training();
+		first.trainEpoch(data);
+		same.trainEpoch(data);
+		other.trainEpoch(data);
+		Networks.assertSameState(first, same);
+		assertNotEquals(first.checkpoint(1).state.randomState, other.checkpoint(1).state.randomState);
+		assertNotEquals(0f, Networks.maxWeightDifference(first, other));
+	}
+}
@@ -0,0 +1,49 @@
+package neuronalnetwork;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class SparseInputTest {
+	/**
+	 * The sparse input layer applies the momentum of skipped pixels in one
+	 * step, which only changes the rounding. Over repeated runs the largest
+	 * weight difference after 8000 samples is 1.8e-4.
+	 */
+	private static final float TOLERANCE = 1e-3f;
+
+	@Test
+	void trainsLikeTheDenseInputLayer(){
+		NeuralNetwork dense = new NeuralNetwork(new int[]{ 64, 32 });
+		NeuralNetwork sparse = Networks.copy(dense);
+		dense.setSparseInput(false);
+		sparse.setSparseInput(true);
+		dense.trainEpoch(Datasets.training());
+		sparse.trainEpoch(Datasets.training());
+		float difference = Networks.maxWeightDifference(dense, sparse);
+		assertTrue(difference < TOLERANCE, "largest weight difference " + difference);
+	}
+
+	/*
+	 * With momentum 0.9999 m^n is still 1.4e-3 at the end of the tables, so
+	 * a gap of 100000 steps must not be cut to the table length. The
+	 * reference is the dense loop in double.
+	 */
+	@Test
+	void catchesUpGapsLongerThanTheTables(){
+		float momentum = 0.9999f;
+		int steps = 100000;
+		float[] weights = { 0.25f };
+		float[] error = { -1e-5f };
+		new LazyMomentum(momentum).catchUp(weights, error, 1, 1, new int[]{ 0, 1 }, 0, 1, new int[]{ 0 }, steps + 1);
+
+		double w = 0.25, e = -1e-5;
+		for(int s=0; s<steps; ++s){
+			e *= momentum;
+			w += e;
+		}
+		assertEquals(w, weights[0], 1e-6, "weight");
+		assertEquals(e, error[0], Math.abs(e) * 1e-3, "momentum term");
+	}
+}
@@ -0,0 +1,60 @@
+package neuronalnetwork;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+class ThreadPoolTest {
+
+	/*
+	 * Worker threads of networks left open by other tests are ignored.
+	 */
+	private final Set<Thread> existing = new HashSet<>(allWorkers());
+
+	@Test
+	void reusesWorkersUntilClosed() throws InterruptedException{
+		Dataset data = Datasets.training().subset(new int[]{ 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15 });
+		try(NeuralNetwork network = new NeuralNetwork(new int[]{ 16 })){
+			network.setThreads(2);
+			network.setBatchSize(4);
+			network.trainEpoch(data);
+			List<Thread> first = workers();
+			network.trainEpoch(data);
+			assertEquals(2, first.size());
+			assertEquals(first, workers());
+
+			network.setHogwild(true);
+			network.trainEpoch(data);
+			assertEquals(first, workers());
+
+			network.close();
+			for(Thread thread : first){
+				thread.join(10000);
+			}
+			assertTrue(workers().isEmpty());
+
+			network.setHogwild(false);
+			network.trainEpoch(data);
+			assertEquals(2, workers().size());
+		}
+	}
+
+	private List<Thread> workers(){
+		return allWorkers().stream()
+				.filter(thread -> !existing.contains(thread))
+				.collect(Collectors.toList());
+	}
+
+	private static List<Thread> allWorkers(){
+		return Thread.getAllStackTraces().keySet().stream()
+				.filter(thread -> thread.getName().equals("neuronalnetwork-worker"))
+				.sorted((a, b) -> Long.compare(a.getId(), b.getId()))
+				.collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,41 @@
+package neuronalnetwork;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class TrainingStatsTest {
+
+	/*
+	 * One backpropagation time per weight layer, whatever the depth: the
+	 * image straight to the output, and three hidden layers.
+	 */
+	@ParameterizedTest(name = "{0} hidden layers")
+	@ValueSource(ints = { 0, 3 })
+	void timesEveryLayer(int hidden){
+		int[] neurons = new int[hidden];
+		for(int l=0; l<hidden; ++l){
+			neurons[l] = 32 >> l;
+		}
+		NeuralNetwork network = new NeuralNetwork(neurons);
+		AtomicReference<TrainingStats> last = new AtomicReference<>();
+		network.addTrainingListener(new TrainingListener() {
+			@Override
+			public void epochFinished(TrainingStats stats){
+				last.set(stats);
+			}
+		});
+		network.trainEpoch(Datasets.evaluation());
+		TrainingStats stats = last.get();
+		assertEquals(hidden + 1, stats.getLayers());
+		for(int l=0; l<stats.getLayers(); ++l){
+			assertTrue(stats.getBackpropagationNanos(l) > 0, "layer " + l);
+		}
+		assertThrows(IllegalArgumentException.class, () -> stats.getBackpropagationNanos(hidden + 1));
+	}
+}
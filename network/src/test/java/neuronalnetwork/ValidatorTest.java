@@ -0,0 +1,36 @@
+package neuronalnetwork;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ValidatorTest {
+
+	/*
+	 * The same weights never improve on the first result, so with patience
+	 * 1 the second snapshot asks for a stop. The trainer must only see it
+	 * when it submits the third, even if the validation already finished.
+	 */
+	@Test
+	void stopIsSeenAtTheNextSubmit(){
+		Dataset data = Datasets.testSet().subset(new int[]{ 0, 1, 2, 3, 4, 5, 6, 7 });
+		NeuralNetwork network = new NeuralNetwork(new int[]{ 16 });
+		try(Validator validator = new Validator(data, 1, 0, 1, false, 0f)){
+			validator.submit(network.snapshot());
+			validator.submit(network.snapshot());
+			validator.await();
+			assertFalse(validator.stopRequested());
+			Validator.Result first = validator.poll();
+			assertNotNull(first);
+			assertNull(validator.poll());
+
+			validator.submit(network.snapshot());
+			assertTrue(validator.stopRequested());
+			assertEquals(first.hits, validator.poll().hits);
+		}
+	}
+}
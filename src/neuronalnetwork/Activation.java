@@ -0,0 +1,35 @@
+package neuronalnetwork;
+
+/**
+ * Neuron activation function.
+ */
+public interface Activation {
+
+	/**
+	 * Logistic sigmoid from an interpolated lookup table. Maximum absolute
+	 * error against the exact function is below 1.5e-6, see {@link TableSigmoid}.
+	 */
+	Activation SIGMOID = new TableSigmoid();
+
+	/**
+	 * Logistic sigmoid computed with {@link Math#exp(double)}.
+	 */
+	Activation EXACT_SIGMOID = new ExactSigmoid();
+
+	float apply(float value);
+
+	/**
+	 * out[i] = apply(in[i]) for i in [0, length). in and out may be the
+	 * same array.
+	 */
+	void apply(float[] in, float[] out, int length);
+
+	default void apply(float[] in, float[] out){
+		apply(in, out, in.length);
+	}
+
+	/**
+	 * Derivative of the activation expressed in terms of its output.
+	 */
+	float derivative(float output);
+}
@@ -0,0 +1,133 @@
+package neuronalnetwork;
+
+import java.util.Arrays;
+
+/**
+ * Activation, delta and gradient buffers for one mini-batch.
+ *
+ * Samples are stored one per row so the forward pass and the gradient
+ * computation run as matrix-matrix products over the whole batch.
+ */
+final class BatchWorkspace {
+	final int capacity;
+	final Activation activation;
+	/** Softmax output layer trained with cross-entropy, see {@link Softmax}. */
+	final boolean softmax;
+	/** Input size and neurons of every layer, as in {@link NeuralNetwork}. */
+	final int[] sizes;
+
+	int size;
+	int hits;
+
+	final int[] labels;
+	final float[] input;
+	/** Outputs of every layer, one row per sample. */
+	final float[][] out;
+	/** Deltas of every layer, one row per sample. */
+	final float[][] deltas;
+	/** Batch gradient of every layer, shaped like its weights. */
+	final float[][] gradients;
+
+	BatchWorkspace(int capacity, Activation activation, boolean softmax, int[] sizes){
+		this.capacity = capacity;
+		this.activation = activation;
+		this.softmax = softmax;
+		this.sizes = sizes;
+
+		labels = new int[capacity];
+		input = new float[capacity * sizes[0]];
+		out = new float[sizes.length - 1][];
+		deltas = new float[sizes.length - 1][];
+		gradients = new float[sizes.length - 1][];
+		for(int l=0; l<out.length; ++l){
+			out[l] = new float[capacity * sizes[l + 1]];
+			deltas[l] = new float[capacity * sizes[l + 1]];
+			gradients[l] = new float[sizes[l + 1] * sizes[l]];
+		}
+	}
+
+	/**
+	 * Copy samples [start, start+count) into the batch rows.
+	 */
+	void load(InputPipeline.Batch source, int start, int count){
+		size = count;
+		System.arraycopy(source.input, start * sizes[0], input, 0, count * sizes[0]);
+		System.arraycopy(source.labels, start, labels, 0, count);
+	}
+
+	void forward(Layer[] layers){
+		float[] in = input;
+		for(int l=0; l<out.length; ++l){
+			MatrixKernels.multiplyTransposed(in, size, layers[l].weights, sizes[l + 1], sizes[l], out[l]);
+			if(softmax && l == out.length - 1){
+				Softmax.applyRows(out[l], size, sizes[l + 1]);
+			}else{
+				activation.apply(out[l], out[l], size * sizes[l + 1]);
+			}
+			in = out[l];
+		}
+	}
+
+	/**
+	 * Count hits and accumulate the batch gradients of every layer.
+	 * Errors are propagated with the weights used by the forward pass.
+	 */
+	void backward(Layer[] layers){
+		for(int l=out.length-1; l>=0; --l){
+			backward(l, layers[l].weights);
+		}
+	}
+
+	/**
+	 * Gradient of layer l and the deltas propagated to the layer before.
+	 * The output layer, which goes first, also counts the hits and
+	 * computes its own deltas.
+	 */
+	void backward(int l, float[] weights){
+		int outputs = sizes[l + 1];
+		int inputs = sizes[l];
+		if(l == out.length - 1){
+			float[] output = out[l];
+			float[] delta = deltas[l];
+			hits = 0;
+			for(int b=0; b<size; ++b){
+				int row = b * outputs;
+				if(NeuralNetwork.argmax(output, row, outputs) == labels[b])
+					hits++;
+				for(int i=0; i<outputs; ++i){
+					float value = output[row + i];
+					float target = (labels[b] == i) ? 1.0f : 0.0f;
+					delta[row + i] = softmax ? target - value : activation.derivative(value) * (target - value);
+				}
+			}
+		}
+
+		Arrays.fill(gradients[l], 0f);
+		MatrixKernels.accumulateOuterProduct(deltas[l], size, (l == 0) ? input : out[l - 1], outputs, inputs, gradients[l]);
+		if(l > 0){
+			MatrixKernels.multiply(deltas[l], size, weights, outputs, inputs, deltas[l - 1]);
+			derivate(out[l - 1], deltas[l - 1], size * inputs);
+		}
+	}
+
+	/**
+	 * Add the gradients of another workspace into this one.
+	 */
+	void addGradients(BatchWorkspace other){
+		for(int l=0; l<gradients.length; ++l){
+			add(gradients[l], other.gradients[l]);
+		}
+	}
+
+	private static void add(float[] sum, float[] values){
+		for(int i=0; i<sum.length; ++i){
+			sum[i] += values[i];
+		}
+	}
+
+	private void derivate(float[] out, float[] error, int length){
+		for(int i=0; i<length; ++i){
+			error[i] = activation.derivative(out[i]) * error[i];
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package neuronalnetwork;
+
+/**
+ * bfloat16 conversions. A bfloat16 is the upper half of a float: same sign
+ * and 8-bit exponent, 7 explicit mantissa bits instead of 23. Widening is
+ * a shift and exact; narrowing rounds to nearest, ties to even, and keeps
+ * NaNs quiet.
+ */
+final class Bfloat16 {
+	private Bfloat16(){
+	}
+
+	static short fromFloat(float value){
+		int bits = Float.floatToRawIntBits(value);
+		if(Float.isNaN(value))
+			return (short) ((bits >>> 16) | 0x0040);
+		bits += 0x7FFF + ((bits >>> 16) & 1);
+		return (short) (bits >>> 16);
+	}
+
+	static float toFloat(short value){
+		return Float.intBitsToFloat(value << 16);
+	}
+
+	static short[] fromFloats(float[] values){
+		short[] narrow = new short[values.length];
+		for(int i=0; i<values.length; ++i){
+			narrow[i] = fromFloat(values[i]);
+		}
+		return narrow;
+	}
+
+	static float[] toFloats(short[] values){
+		float[] wide = new float[values.length];
+		for(int i=0; i<values.length; ++i){
+			wide[i] = toFloat(values[i]);
+		}
+		return wide;
+	}
+}
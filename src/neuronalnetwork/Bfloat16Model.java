@@ -0,0 +1,138 @@
+package neuronalnetwork;
+
+import static neuronalnetwork.Kernels.KERNELS;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Inference model with every weight stored as a bfloat16.
+ *
+ * The weights take half the memory of a {@link Model} and a prediction
+ * reads half the bytes. Each weight is widened back to float as it is
+ * loaded and the sums are accumulated in float, so the only difference
+ * with the float model is the rounding of the weights, about 3 significant
+ * digits. As in {@link Model}, the class is the largest weighted sum of
+ * the output layer.
+ *
+ * Like {@link Model} it is immutable, one instance can serve any number of
+ * threads and predictions allocate nothing after a thread's first call.
+ * It is saved as a {@link Checkpoint} with FLAG_BFLOAT16, which
+ * {@link NeuralNetwork#loadWeights(String)} and {@link Model#load(String)}
+ * also read.
+ */
+public final class Bfloat16Model {
+	private final int[] sizes;
+	private final int inputSize;
+	private final int numOutput;
+	private final short[][] weights;
+	private final Activation activation;
+	private final ThreadLocal<float[][]> scratch = ThreadLocal.withInitial(this::newScratch);
+
+	/**
+	 * @param weights Row-major float weights of each layer; they are not
+	 *        modified
+	 */
+	Bfloat16Model(int[] sizes, float[][] weights, Activation activation){
+		this.sizes = sizes.clone();
+		inputSize = sizes[0];
+		numOutput = sizes[sizes.length - 1];
+		this.weights = new short[weights.length][];
+		for(int l=0; l<weights.length; ++l){
+			this.weights[l] = Bfloat16.fromFloats(weights[l]);
+		}
+		this.activation = activation;
+	}
+
+	/** Pixels per image. */
+	public int getInputSize(){
+		return inputSize;
+	}
+
+	/** Number of classes. */
+	public int getOutputSize(){
+		return numOutput;
+	}
+
+	/**
+	 * Size in bytes of the weights.
+	 */
+	public long weightBytes(){
+		long count = 0;
+		for(short[] layer : weights){
+			count += layer.length;
+		}
+		return count * Short.BYTES;
+	}
+
+	/**
+	 * Class of the normalized image at pixels[offset, offset + inputSize).
+	 */
+	public int predict(float[] pixels, int offset){
+		if(offset < 0 || offset > pixels.length - inputSize)
+			throw new IllegalArgumentException("No image at offset " + offset);
+		float[][] s = scratch.get();
+		float[] in = pixels;
+		for(int l=0; l<weights.length; ++l){
+			int inputs = sizes[l];
+			float[] out = s[l];
+			for(int i=0; i<out.length; ++i){
+				out[i] = KERNELS.dot(weights[l], i * inputs, in, offset, inputs);
+			}
+			if(l < weights.length - 1)
+				activation.apply(out, out, out.length);
+			in = out;
+			offset = 0;
+		}
+		return NeuralNetwork.argmax(in, 0, numOutput);
+	}
+
+	/**
+	 * Classes of count normalized images stored one after another.
+	 *
+	 * @param predictions Receives the class of image i at index i
+	 */
+	public void predictBatch(float[] pixels, int count, int[] predictions){
+		if(count < 0 || (long) count * inputSize > pixels.length || count > predictions.length)
+			throw new IllegalArgumentException("Invalid batch of " + count + " images");
+		for(int b=0; b<count; ++b){
+			predictions[b] = predict(pixels, b * inputSize);
+		}
+	}
+
+	/**
+	 * Save the model as a bfloat16 checkpoint.
+	 */
+	public void write(String filename) throws IOException {
+		float[][] wide = new float[weights.length][];
+		for(int l=0; l<weights.length; ++l){
+			wide[l] = Bfloat16.toFloats(weights[l]);
+		}
+		new Checkpoint(sizes, wide, null, null, true).write(Paths.get(filename), false);
+	}
+
+	/**
+	 * Read any binary checkpoint, rounding its weights to bfloat16 if they
+	 * are float, with the default activation.
+	 */
+	public static Bfloat16Model read(String filename) throws IOException {
+		Checkpoint checkpoint = Checkpoint.read(filename);
+		return new Bfloat16Model(checkpoint.sizes, checkpoint.weights, Activation.SIGMOID);
+	}
+
+	/**
+	 * Check whether a file is a checkpoint stored as bfloat16.
+	 */
+	public static boolean isBfloat16(String filename) throws IOException {
+		int flags = Checkpoint.flags(filename);
+		return flags >= 0 && (flags & Checkpoint.FLAG_BFLOAT16) != 0;
+	}
+
+	private float[][] newScratch(){
+		float[][] out = new float[sizes.length - 1][];
+		for(int l=0; l<out.length; ++l){
+			out[l] = new float[sizes[l + 1]];
+		}
+		return out;
+	}
+}
@@ -0,0 +1,250 @@
+package neuronalnetwork;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Binary weight checkpoints.
+ *
+ * Layout, little-endian:
+ * <pre>
+ *   int    magic ("NNWB")
+ *   int    version
+ *   int    flags, FLAG_TRAINING or FLAG_BFLOAT16 or 0
+ *   int    number of weight layers L
+ *   int[]  L+1 layer sizes, input size first
+ *   long   CRC32 of the payload
+ *   float  L blocks of weights, block l is sizes[l+1] x sizes[l], row-major
+ * </pre>
+ * With FLAG_BFLOAT16 every weight is stored as a bfloat16, two bytes
+ * instead of four, and read back widened to float. Training checkpoints are
+ * always float: resuming from rounded weights and momentum would not
+ * continue the interrupted training.
+ * With FLAG_TRAINING the payload goes on with the training state needed to
+ * resume:
+ * <pre>
+ *   float  L blocks of momentum terms, shaped like the weights
+ *   int    epochs trained
+ *   long   samples trained
+ *   long   state of the shuffling generator
+ *   float  learning rate
+ *   float  momentum
+ * </pre>
+ */
+final class Checkpoint {
+	static final int MAGIC = 0x42574E4E; // "NNWB" read as little-endian
+	static final int VERSION = 1;
+	static final int FLAG_TRAINING = 1;
+	static final int FLAG_BFLOAT16 = 2;
+	private static final int STATE_BYTES = Integer.BYTES + 2 * Long.BYTES + 2 * Float.BYTES;
+
+	/**
+	 * Training position and settings stored with FLAG_TRAINING.
+	 */
+	static final class State {
+		final int epoch;
+		final long samples;
+		final long randomState;
+		final float learningRate;
+		final float momentum;
+
+		State(int epoch, long samples, long randomState, float learningRate, float momentum){
+			this.epoch = epoch;
+			this.samples = samples;
+			this.randomState = randomState;
+			this.learningRate = learningRate;
+			this.momentum = momentum;
+		}
+	}
+
+	final int[] sizes;
+	final float[][] weights;
+	/** Momentum terms, or null for a weight-only checkpoint. */
+	final float[][] weightErrors;
+	final State state;
+	/** Whether the blocks are written as bfloat16. */
+	final boolean bfloat16;
+
+	Checkpoint(int[] sizes, float[][] weights){
+		this(sizes, weights, null, null, false);
+	}
+
+	Checkpoint(int[] sizes, float[][] weights, float[][] weightErrors, State state){
+		this(sizes, weights, weightErrors, state, false);
+	}
+
+	Checkpoint(int[] sizes, float[][] weights, float[][] weightErrors, State state, boolean bfloat16){
+		if(weights.length != sizes.length - 1)
+			throw new IllegalArgumentException("Expected " + (sizes.length - 1) + " weight layers");
+		if((weightErrors == null) != (state == null))
+			throw new IllegalArgumentException("The momentum terms and the training state go together");
+		if(state != null && bfloat16)
+			throw new IllegalArgumentException("Training checkpoints are not stored as bfloat16");
+		for(int l=0; l<weights.length; ++l){
+			if(weights[l].length != sizes[l] * sizes[l + 1])
+				throw new IllegalArgumentException("Layer " + l + " has " + weights[l].length + " weights");
+			if(weightErrors != null && weightErrors[l].length != weights[l].length)
+				throw new IllegalArgumentException("Layer " + l + " has " + weightErrors[l].length + " momentum terms");
+		}
+		this.sizes = sizes;
+		this.weights = weights;
+		this.weightErrors = weightErrors;
+		this.state = state;
+		this.bfloat16 = bfloat16;
+	}
+
+	/**
+	 * Check whether a file starts with the checkpoint magic number.
+	 */
+	static boolean isCheckpoint(String filename) throws IOException {
+		return flags(filename) >= 0;
+	}
+
+	/**
+	 * Flags of a checkpoint file, or -1 if it is not a checkpoint.
+	 */
+	static int flags(String filename) throws IOException {
+		try(FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)){
+			ByteBuffer header = ByteBuffer.allocate(3 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			while(header.hasRemaining() && channel.read(header) >= 0);
+			if(header.position() < Integer.BYTES || header.getInt(0) != MAGIC)
+				return -1;
+			return header.hasRemaining() ? 0 : header.getInt(2 * Integer.BYTES);
+		}
+	}
+
+	void write(String filename) throws IOException {
+		write(Paths.get(filename), false);
+	}
+
+	/**
+	 * @param force Force the file to the storage device before returning
+	 */
+	void write(Path path, boolean force) throws IOException {
+		int count = 0;
+		for(float[] layer : weights){
+			count += layer.length;
+		}
+		int bytes = bfloat16 ? Short.BYTES : Float.BYTES;
+		int length = count * bytes;
+		if(state != null)
+			length += count * bytes + STATE_BYTES;
+		ByteBuffer payload = ByteBuffer.allocateDirect(length).order(ByteOrder.LITTLE_ENDIAN);
+		put(payload, weights, bfloat16);
+		if(state != null){
+			put(payload, weightErrors, bfloat16);
+			payload.putInt(state.epoch).putLong(state.samples).putLong(state.randomState)
+					.putFloat(state.learningRate).putFloat(state.momentum);
+		}
+		payload.flip();
+		CRC32 crc = new CRC32();
+		crc.update(payload.duplicate());
+
+		ByteBuffer header = ByteBuffer.allocate(headerSize(sizes.length)).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putInt(((state != null) ? FLAG_TRAINING : 0) | (bfloat16 ? FLAG_BFLOAT16 : 0)).putInt(weights.length);
+		for(int size : sizes){
+			header.putInt(size);
+		}
+		header.putLong(crc.getValue());
+		header.flip();
+
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+			ByteBuffer[] buffers = { header, payload };
+			while(payload.hasRemaining()){
+				channel.write(buffers);
+			}
+			if(force)
+				channel.force(true);
+		}
+	}
+
+	private static void put(ByteBuffer payload, float[][] blocks, boolean bfloat16){
+		for(float[] layer : blocks){
+			if(bfloat16){
+				payload.asShortBuffer().put(Bfloat16.fromFloats(layer));
+				payload.position(payload.position() + layer.length * Short.BYTES);
+			}else{
+				payload.asFloatBuffer().put(layer);
+				payload.position(payload.position() + layer.length * Float.BYTES);
+			}
+		}
+	}
+
+	private static float[][] get(ByteBuffer map, int[] sizes, boolean bfloat16){
+		float[][] blocks = new float[sizes.length - 1][];
+		for(int l=0; l<blocks.length; ++l){
+			int count = sizes[l] * sizes[l + 1];
+			if(bfloat16){
+				short[] narrow = new short[count];
+				map.asShortBuffer().get(narrow);
+				map.position(map.position() + count * Short.BYTES);
+				blocks[l] = Bfloat16.toFloats(narrow);
+			}else{
+				blocks[l] = new float[count];
+				map.asFloatBuffer().get(blocks[l]);
+				map.position(map.position() + count * Float.BYTES);
+			}
+		}
+		return blocks;
+	}
+
+	static Checkpoint read(String filename) throws IOException {
+		try(FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)){
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			map.order(ByteOrder.LITTLE_ENDIAN);
+
+			if(map.remaining() < 16 || map.getInt() != MAGIC)
+				throw new IOException("Not a weight checkpoint: " + filename);
+			int version = map.getInt();
+			if(version != VERSION)
+				throw new IOException("Unsupported checkpoint version " + version + " in " + filename);
+			int flags = map.getInt();
+			if((flags & ~(FLAG_TRAINING | FLAG_BFLOAT16)) != 0 || flags == (FLAG_TRAINING | FLAG_BFLOAT16))
+				throw new IOException("Unsupported checkpoint flags " + flags + " in " + filename);
+			int layers = map.getInt();
+			if(layers < 1 || map.remaining() < (layers + 1L) * Integer.BYTES + Long.BYTES)
+				throw new IOException("Corrupt checkpoint header in " + filename);
+
+			int[] sizes = new int[layers + 1];
+			long count = 0;
+			for(int l=0; l<=layers; ++l){
+				sizes[l] = map.getInt();
+				if(sizes[l] < 1)
+					throw new IOException("Corrupt checkpoint header in " + filename);
+				if(l > 0)
+					count += (long) sizes[l - 1] * sizes[l];
+			}
+			long checksum = map.getLong();
+			boolean training = (flags & FLAG_TRAINING) != 0;
+			boolean bfloat16 = (flags & FLAG_BFLOAT16) != 0;
+			int bytes = bfloat16 ? Short.BYTES : Float.BYTES;
+			long length = training ? 2 * count * bytes + STATE_BYTES : count * bytes;
+			if(map.remaining() != length)
+				throw new IOException("Truncated checkpoint " + filename);
+
+			CRC32 crc = new CRC32();
+			crc.update(map.duplicate());
+			if(crc.getValue() != checksum)
+				throw new IOException("Checksum mismatch in " + filename);
+
+			float[][] weights = get(map, sizes, bfloat16);
+			if(!training)
+				return new Checkpoint(sizes, weights, null, null, bfloat16);
+			float[][] weightErrors = get(map, sizes, bfloat16);
+			State state = new State(map.getInt(), map.getLong(), map.getLong(), map.getFloat(), map.getFloat());
+			return new Checkpoint(sizes, weights, weightErrors, state, bfloat16);
+		}
+	}
+
+	private static int headerSize(int numSizes){
+		return 4 * Integer.BYTES + numSizes * Integer.BYTES + Long.BYTES;
+	}
+}
@@ -0,0 +1,108 @@
+package neuronalnetwork;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Training checkpoints written on a background thread.
+ *
+ * The trainer copies its weights and momentum terms into one of two
+ * buffers and goes on training while the background thread writes that
+ * buffer. Each checkpoint goes to a temporary file next to the target,
+ * is forced to the storage device and renamed over the target in one
+ * atomic step, so the target always holds a complete checkpoint, the
+ * previous one until the new one is on disk. The trainer only waits when
+ * the buffer it needs is still being written, from two checkpoints back.
+ */
+final class CheckpointWriter implements AutoCloseable {
+	private final Path path;
+	private final Path temporary;
+	private final int[] sizes;
+	private final float[][][] weights = new float[2][][];
+	private final float[][][] weightErrors = new float[2][][];
+	private final Future<?>[] pending = new Future<?>[2];
+	private final ExecutorService executor;
+	private int next;
+
+	CheckpointWriter(String filename, int[] sizes){
+		path = Paths.get(filename).toAbsolutePath();
+		temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		this.sizes = sizes.clone();
+		for(int b=0; b<2; ++b){
+			weights[b] = new float[sizes.length - 1][];
+			weightErrors[b] = new float[sizes.length - 1][];
+			for(int l=0; l<sizes.length - 1; ++l){
+				weights[b][l] = new float[sizes[l] * sizes[l + 1]];
+				weightErrors[b][l] = new float[sizes[l] * sizes[l + 1]];
+			}
+		}
+		executor = Executors.newSingleThreadExecutor(task -> {
+			Thread thread = new Thread(task, "neuronalnetwork-checkpoint");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Copy the layers and write them with the training state in the
+	 * background.
+	 */
+	void submit(Layer[] layers, Checkpoint.State state){
+		int b = next;
+		next = 1 - b;
+		await(b);
+		for(int l=0; l<layers.length; ++l){
+			System.arraycopy(layers[l].weights, 0, weights[b][l], 0, weights[b][l].length);
+			System.arraycopy(layers[l].weightError, 0, weightErrors[b][l], 0, weightErrors[b][l].length);
+		}
+		Checkpoint checkpoint = new Checkpoint(sizes, weights[b], weightErrors[b], state);
+		pending[b] = executor.submit(() -> {
+			write(checkpoint);
+			return null;
+		});
+	}
+
+	/**
+	 * Wait for every checkpoint submitted.
+	 */
+	void await(){
+		await(next);
+		await(1 - next);
+	}
+
+	@Override
+	public void close(){
+		try{
+			await();
+		}finally{
+			executor.shutdownNow();
+		}
+	}
+
+	private void write(Checkpoint checkpoint) throws IOException {
+		checkpoint.write(temporary, true);
+		Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private void await(int b){
+		if(pending[b] == null)
+			return;
+		try{
+			pending[b].get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Training interrupted", e);
+		}catch(ExecutionException e){
+			throw new IllegalStateException("Checkpoint failed", e.getCause());
+		}finally{
+			pending[b] = null;
+		}
+	}
+}
@@ -0,0 +1,235 @@
+package neuronalnetwork;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Labelled image set fed to {@link NeuralNetwork}.
+ *
+ * Images are normalized to [0,1] into a caller-provided buffer when a
+ * sample is fed to the network, so packed uint8 data sets never exist
+ * as floats in memory. Implementations are read-only and can be shared
+ * by several threads.
+ */
+public abstract class Dataset
+{
+	private static final float[] NORMALIZED = new float[256];
+
+	static {
+		for (int i=0; i<NORMALIZED.length; i++)
+			NORMALIZED[i] = (float)i / 255f;
+	}
+
+	protected final int size;
+	protected final int imageSize;
+	private final byte[] labels;
+	private volatile NonzeroIndex nonzeros;
+
+	protected Dataset (int[] labels, int imageSize)
+	{
+		this.size = labels.length;
+		this.imageSize = imageSize;
+		this.labels = new byte[size];
+		for (int i=0; i<size; i++) {
+			if (labels[i] < 0 || labels[i] > 255)
+				throw new IllegalArgumentException("Invalid label "+labels[i]);
+			this.labels[i] = (byte) labels[i];
+		}
+	}
+
+	/**
+	 * Packed raw pixels, one byte per pixel and one image after another.
+	 */
+	public static Dataset ofPixels (byte[] pixels, int[] labels, int imageSize)
+	{
+		return new PackedPixels(ByteBuffer.wrap(pixels), labels, imageSize);
+	}
+
+	/**
+	 * Packed raw pixels in a heap or off-heap buffer, one byte per pixel and
+	 * one image after another, starting at index 0.
+	 */
+	public static Dataset ofPixels (ByteBuffer pixels, int[] labels, int imageSize)
+	{
+		return new PackedPixels(pixels, labels, imageSize);
+	}
+
+	/**
+	 * Already normalized pixels, one image after another.
+	 */
+	public static Dataset of (float[] data, int[] labels, int imageSize)
+	{
+		return new NormalizedPixels(FloatBuffer.wrap(data), labels, imageSize);
+	}
+
+	/**
+	 * Already normalized pixels in a heap, off-heap or memory-mapped buffer.
+	 */
+	public static Dataset of (FloatBuffer data, int[] labels, int imageSize)
+	{
+		return new NormalizedPixels(data, labels, imageSize);
+	}
+
+	/**
+	 * Already normalized 2D images.
+	 */
+	public static Dataset of (float[][][] images, int[] labels)
+	{
+		return new Images(images, labels);
+	}
+
+	public int size ()
+	{
+		return size;
+	}
+
+	public int imageSize ()
+	{
+		return imageSize;
+	}
+
+	public int label (int index)
+	{
+		return labels[index] & 0xFF;
+	}
+
+	/**
+	 * Write the normalized pixels of an image into a buffer.
+	 *
+	 * @param index Image index
+	 * @param destination Destination buffer
+	 * @param offset Position of the first pixel in the destination
+	 */
+	public abstract void normalize (int index, float[] destination, int offset);
+
+	/**
+	 * Nonzero pixels of every image, computed on first use.
+	 */
+	NonzeroIndex nonzeros ()
+	{
+		NonzeroIndex index = nonzeros;
+		if (index == null) {
+			index = NonzeroIndex.of(this);
+			nonzeros = index;
+		}
+		return index;
+	}
+
+	/**
+	 * View of the images at the given indices, in that order.
+	 */
+	Dataset subset (int[] indices)
+	{
+		return new Subset(this, indices);
+	}
+
+	private static void checkLength (long length, int size, int imageSize)
+	{
+		if (length != (long) size * imageSize)
+			throw new IllegalArgumentException(length+" pixels do not match "+size+" images of "+imageSize);
+	}
+
+
+	private static final class PackedPixels extends Dataset
+	{
+		private final ByteBuffer pixels;
+		private final byte[] array;
+		private final int arrayOffset;
+		// Off-heap pixels are copied in bulk, one image per thread at a time
+		private final ThreadLocal<byte[]> image;
+
+		PackedPixels (ByteBuffer pixels, int[] labels, int imageSize)
+		{
+			super(labels, imageSize);
+			checkLength(pixels.limit(), size, imageSize);
+			this.pixels = pixels.duplicate();
+			this.array = pixels.hasArray() ? pixels.array() : null;
+			this.arrayOffset = pixels.hasArray() ? pixels.arrayOffset() : 0;
+			this.image = (array != null) ? null : ThreadLocal.withInitial(() -> new byte[imageSize]);
+		}
+
+		@Override
+		public void normalize (int index, float[] destination, int offset)
+		{
+			int start = index * imageSize;
+			byte[] source = array;
+			if (source != null) {
+				start += arrayOffset;
+			} else {
+				source = image.get();
+				pixels.get(start, source, 0, imageSize);
+				start = 0;
+			}
+			for (int k=0; k<imageSize; k++)
+				destination[offset + k] = NORMALIZED[source[start + k] & 0xFF];
+		}
+	}
+
+	private static final class NormalizedPixels extends Dataset
+	{
+		private final FloatBuffer data;
+
+		NormalizedPixels (FloatBuffer data, int[] labels, int imageSize)
+		{
+			super(labels, imageSize);
+			checkLength(data.limit(), size, imageSize);
+			this.data = data.duplicate();
+		}
+
+		@Override
+		public void normalize (int index, float[] destination, int offset)
+		{
+			data.get(index * imageSize, destination, offset, imageSize);
+		}
+	}
+
+	private static final class Images extends Dataset
+	{
+		private final float[][][] images;
+
+		Images (float[][][] images, int[] labels)
+		{
+			super(labels, (images.length == 0) ? 0 : images[0].length * images[0][0].length);
+			if (images.length != size)
+				throw new IllegalArgumentException(images.length+" images do not match "+size+" labels");
+			this.images = images;
+		}
+
+		@Override
+		public void normalize (int index, float[] destination, int offset)
+		{
+			float[][] image = images[index];
+			for (int j=0; j<image.length; j++) {
+				System.arraycopy(image[j], 0, destination, offset, image[j].length);
+				offset += image[j].length;
+			}
+		}
+	}
+
+	private static final class Subset extends Dataset
+	{
+		private final Dataset data;
+		private final int[] indices;
+
+		Subset (Dataset data, int[] indices)
+		{
+			super(labels(data, indices), data.imageSize());
+			this.data = data;
+			this.indices = indices.clone();
+		}
+
+		private static int[] labels (Dataset data, int[] indices)
+		{
+			int[] labels = new int[indices.length];
+			for (int i=0; i<indices.length; i++)
+				labels[i] = data.label(indices[i]);
+			return labels;
+		}
+
+		@Override
+		public void normalize (int index, float[] destination, int offset)
+		{
+			data.normalize(indices[index], destination, offset);
+		}
+	}
+}
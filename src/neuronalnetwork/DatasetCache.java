@@ -0,0 +1,218 @@
+package neuronalnetwork;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Preprocessed MNIST data set cache.
+ *
+ * The first load decodes the IDX files and writes the raw pixels to an
+ * uncompressed cache file; later loads memory-map it. The pixels stay
+ * uint8, one byte each, and are normalized through the lookup table of
+ * {@link Dataset} when an image is fed to the network, so the mapping is
+ * a quarter of the size of normalized floats. The cache is keyed by the
+ * size and CRC32 of both source files, so it is rebuilt automatically when
+ * they change, and by the version, so caches of normalized floats written
+ * by version 1 are rebuilt too.
+ *
+ * Layout, little-endian:
+ * <pre>
+ *   int    magic ("NNDC")
+ *   int    version
+ *   long   images file size
+ *   long   images file CRC32
+ *   long   labels file size
+ *   long   labels file CRC32
+ *   int    number of images
+ *   int    pixels per image
+ *   ...    padding up to HEADER_SIZE
+ *   byte   raw pixels, one image after another, at HEADER_SIZE
+ *   byte   labels
+ * </pre>
+ */
+public final class DatasetCache
+{
+	private static final int MAGIC = 0x43444E4E; // "NNDC" read as little-endian
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 64;
+
+	protected static final Logger log = Logger.getLogger(DatasetCache.class.getName());
+
+	private final ByteBuffer pixels;
+	private final int[] labels;
+	private final int imageSize;
+
+	private DatasetCache (ByteBuffer pixels, int[] labels, int imageSize)
+	{
+		this.pixels = pixels;
+		this.labels = labels;
+		this.imageSize = imageSize;
+	}
+
+	/**
+	 * Open the cache for a pair of IDX files, building it if it is missing
+	 * or stale.
+	 *
+	 * @param imagesFile Gzipped IDX image file
+	 * @param labelsFile Gzipped IDX label file
+	 * @param cacheFile Cache file name
+	 * @throws IOException
+	 */
+	public static DatasetCache open (String imagesFile, String labelsFile, String cacheFile)
+			throws IOException
+	{
+		Path images = Paths.get(imagesFile);
+		Path labels = Paths.get(labelsFile);
+		Path cache = Paths.get(cacheFile);
+		long[] key = { Files.size(images), checksum(images), Files.size(labels), checksum(labels) };
+
+		if (Files.exists(cache)) {
+			DatasetCache dataset = map(cache, key);
+			if (dataset != null)
+				return dataset;
+			log.info("Stale data set cache "+cacheFile+", rebuilding");
+		}
+
+		build(imagesFile, labelsFile, cache, key);
+		DatasetCache dataset = map(cache, key);
+		if (dataset == null)
+			throw new IOException("Unable to build data set cache "+cacheFile);
+		return dataset;
+	}
+
+	/**
+	 * Raw pixels mapped from the cache file, read in place.
+	 */
+	public ByteBuffer pixels ()
+	{
+		return pixels.duplicate();
+	}
+
+	/**
+	 * Normalized pixels copied to the heap, one image after another.
+	 */
+	public float[] imagesArray ()
+	{
+		Dataset dataset = dataset();
+		float[] images = new float[pixels.capacity()];
+		for (int i=0; i<dataset.size(); i++)
+			dataset.normalize(i, images, i * imageSize);
+		return images;
+	}
+
+	/**
+	 * Data set that reads the mapped pixels in place.
+	 */
+	public Dataset dataset ()
+	{
+		return Dataset.ofPixels(pixels.duplicate(), labels, imageSize);
+	}
+
+	public int[] labels ()
+	{
+		return labels.clone();
+	}
+
+	public int size ()
+	{
+		return labels.length;
+	}
+
+	public int imageSize ()
+	{
+		return imageSize;
+	}
+
+	private static DatasetCache map (Path cache, long[] key) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+			long length = channel.size();
+			if (length < HEADER_SIZE)
+				return null;
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining() && channel.read(header) >= 0);
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION)
+				return null;
+			for (long value : key)
+				if (header.getLong() != value)
+					return null;
+			int count = header.getInt();
+			int imageSize = header.getInt();
+			long pixels = (long) count * imageSize;
+			if (count < 0 || imageSize < 0 || length != HEADER_SIZE + pixels + count)
+				return null;
+
+			MappedByteBuffer images = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, pixels);
+
+			ByteBuffer labelBytes = ByteBuffer.allocate(count);
+			channel.position(HEADER_SIZE + pixels);
+			while (labelBytes.hasRemaining() && channel.read(labelBytes) >= 0);
+			int[] labels = new int[count];
+			for (int i=0; i<count; i++)
+				labels[i] = labelBytes.get(i) & 0xFF;
+
+			return new DatasetCache(images, labels, imageSize);
+		}
+	}
+
+	private static void build (String imagesFile, String labelsFile, Path cache, long[] key)
+			throws IOException
+	{
+		byte[] pixels = MNISTDatabase.readImagesRaw(imagesFile);
+		int[] labels = MNISTDatabase.readLabels(labelsFile);
+		if (labels.length == 0 || pixels.length % labels.length != 0)
+			throw new IOException(imagesFile+" and "+labelsFile+" do not match");
+		int imageSize = pixels.length / labels.length;
+		long length = HEADER_SIZE + (long) pixels.length + labels.length;
+
+		// Se escribe en un temporal y se renombra, para no dejar nunca una
+		// cach a medias con una cabecera vlida.
+		Path temporary = Files.createTempFile(cache.toAbsolutePath().getParent(), cache.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.READ,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+				map.order(ByteOrder.LITTLE_ENDIAN);
+				map.putInt(MAGIC).putInt(VERSION);
+				for (long value : key)
+					map.putLong(value);
+				map.putInt(labels.length).putInt(imageSize);
+				map.position(HEADER_SIZE);
+				map.put(pixels);
+				for (int label : labels)
+					map.put((byte) label);
+				map.force();
+			}
+			Files.move(temporary, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+		log.info("Data set cache written to "+cache);
+	}
+
+	private static long checksum (Path file) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				crc.update(buffer);
+				buffer.clear();
+			}
+		}
+		return crc.getValue();
+	}
+}
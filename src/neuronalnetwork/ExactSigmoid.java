@@ -0,0 +1,24 @@
+package neuronalnetwork;
+
+/**
+ * Logistic sigmoid computed in double precision, as the original network did.
+ */
+final class ExactSigmoid implements Activation {
+
+	@Override
+	public float apply(float value){
+		return (float) (1.0 / (1.0 + Math.exp(-value)));
+	}
+
+	@Override
+	public void apply(float[] in, float[] out, int length){
+		for(int i=0; i<length; ++i){
+			out[i] = (float) (1.0 / (1.0 + Math.exp(-in[i])));
+		}
+	}
+
+	@Override
+	public float derivative(float output){
+		return output * (1.0f - output);
+	}
+}
@@ -0,0 +1,279 @@
+package neuronalnetwork;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Trains many network configurations at once on a fixed pool of workers,
+ * all reading the same training and validation sets, loaded once.
+ *
+ * The configurations come from a grid or a random search over the values
+ * of a properties file. They are pruned by successive halving: every
+ * round trains the surviving runs up to the round's epochs and validates
+ * them, and only the best 1/reduction go on to the next round, with
+ * reduction times more epochs, until the last round reaches the maximum.
+ * Each run trains on a single worker, one sample at a time unless its
+ * batch size says otherwise, so the pool size bounds the cores in use.
+ *
+ * The runs are ranked by the round they reached and then by their last
+ * validation error, and the table is written as tab-separated values.
+ *
+ * Spec keys, lists separated by commas:
+ * <pre>
+ *   search       grid (default) or random
+ *   learningRate values, or min..max for random, sampled on a log scale
+ *   momentum     values, or min..max for random
+ *   layers       neurons of every layer before the output, e.g. 64x32
+ *   batchSize    values (default 1)
+ *   epochs       epochs of the last round (default 8)
+ *   minEpochs    epochs of the first round (default 1)
+ *   reduction    survivors are 1/reduction of each round (default 2)
+ *   runs         configurations of a random search (default 16)
+ *   seed         seed of the random search, the initial weights and the
+ *                shuffles (default 1)
+ *   workers      training threads (default: available processors)
+ *   validation   images of the test set used to validate, 0 for all (default 0)
+ * </pre>
+ *
+ * Usage: HyperparameterSweep spec.properties [results.tsv]
+ */
+public class HyperparameterSweep
+{
+	static final class Config
+	{
+		final float learningRate;
+		final float momentum;
+		final int[] layers;
+		final int batchSize;
+
+		Config (float learningRate, float momentum, int[] layers, int batchSize)
+		{
+			this.learningRate = learningRate;
+			this.momentum = momentum;
+			this.layers = layers;
+			this.batchSize = batchSize;
+		}
+
+		String layers ()
+		{
+			StringBuilder builder = new StringBuilder();
+			for (int l=0; l<layers.length; l++)
+				builder.append((l == 0) ? "" : "x").append(layers[l]);
+			return builder.toString();
+		}
+	}
+
+	static final class Run
+	{
+		final int id;
+		final Config config;
+		final NeuralNetwork net;
+		int epochs;
+		float error = Float.NaN;
+		long nanos;
+
+		Run (int id, Config config, long seed)
+		{
+			this.id = id;
+			this.config = config;
+			net = new NeuralNetwork(config.layers, seed + id);
+			net.setLearningRate(config.learningRate);
+			net.setMomentum(config.momentum);
+			net.setBatchSize(config.batchSize);
+			net.setPrefetch(false);
+		}
+
+		/*
+		 * Train up to the given epochs and validate.
+		 */
+		void advance (Dataset trainData, Dataset validation, int target)
+		{
+			long start = System.nanoTime();
+			for (; epochs < target; epochs++)
+				net.trainEpoch(trainData);
+			error = 1f - (float) net.validate(validation) / validation.size();
+			nanos += System.nanoTime() - start;
+		}
+	}
+
+	public static void main (String[] args) throws IOException
+	{
+		if (args.length < 1) {
+			System.err.println("Uso: HyperparameterSweep especificacion.properties [resultados.tsv]");
+			System.exit(2);
+		}
+		Properties spec = new Properties();
+		try (Reader reader = new FileReader(args[0])) {
+			spec.load(reader);
+		}
+		String output = (args.length > 1) ? args[1] : "sweep.tsv";
+
+		long seed = Long.parseLong(spec.getProperty("seed", "1"));
+		int epochs = positive(spec, "epochs", 8);
+		int minEpochs = Math.min(epochs, positive(spec, "minEpochs", 1));
+		int reduction = positive(spec, "reduction", 2);
+		int workers = positive(spec, "workers", Runtime.getRuntime().availableProcessors());
+		if (reduction < 2)
+			throw new IllegalArgumentException("Invalid reduction " + reduction);
+		List<Config> configs = configs(spec, seed);
+
+		DatasetCache training = DatasetCache.open("data/mnist/"+MNISTDatabase.trainingImages, "data/mnist/"+MNISTDatabase.trainingLabels, "data/mnist/training.cache");
+		DatasetCache test = DatasetCache.open("data/mnist/"+MNISTDatabase.testImages, "data/mnist/"+MNISTDatabase.testLabels, "data/mnist/test.cache");
+		Dataset trainData = training.dataset();
+		Dataset validation = NeuralNetwork.validationSet(test.dataset(), Integer.parseInt(spec.getProperty("validation", "0")));
+		// Built once here instead of by the first runs at the same time
+		trainData.nonzeros();
+
+		List<Run> runs = new ArrayList<>(configs.size());
+		for (Config config : configs)
+			runs.add(new Run(runs.size(), config, seed));
+
+		System.out.println(configs.size()+" configuraciones, "+workers+" hilos");
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		try {
+			List<Run> alive = new ArrayList<>(runs);
+			for (int target=minEpochs; ; target=Math.min(epochs, target * reduction)) {
+				advance(pool, alive, trainData, validation, target);
+				alive.sort(Comparator.comparingDouble(run -> run.error));
+				System.out.println(String.format(Locale.US, "Ronda de %d epocas: %d configuraciones, mejor error %.2f%% (%s)",
+						target, alive.size(), alive.get(0).error * 100, describe(alive.get(0).config)));
+				if (target == epochs)
+					break;
+				alive = new ArrayList<>(alive.subList(0, (alive.size() + reduction - 1) / reduction));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		System.out.println(String.format(Locale.US, "Barrido completado en %.1f s", (System.nanoTime() - start) / 1e9));
+
+		runs.sort(Comparator.comparingInt((Run run) -> -run.epochs).thenComparingDouble(run -> run.error));
+		try (PrintWriter writer = new PrintWriter(output, "UTF-8")) {
+			writer.println("puesto\tlearningRate\tmomentum\tcapas\tlote\tepocas\terror\ttiempo (s)");
+			for (int r=0; r<runs.size(); r++) {
+				Run run = runs.get(r);
+				writer.println(String.format(Locale.US, "%d\t%s\t%s\t%s\t%d\t%d\t%.2f%%\t%.1f",
+						r + 1, run.config.learningRate, run.config.momentum, run.config.layers(), run.config.batchSize,
+						run.epochs, run.error * 100, run.nanos / 1e9));
+			}
+		}
+		System.out.println("Mejor configuracion: "+describe(runs.get(0).config)+", resultados en '"+output+"'");
+	}
+
+	private static void advance (ExecutorService pool, List<Run> alive, Dataset trainData, Dataset validation, int target)
+	{
+		List<Callable<Void>> tasks = new ArrayList<>(alive.size());
+		for (Run run : alive) {
+			tasks.add(() -> {
+				run.advance(trainData, validation, target);
+				return null;
+			});
+		}
+		try {
+			for (Future<Void> future : pool.invokeAll(tasks))
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Sweep interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Sweep run failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Configurations of the spec: every combination for a grid, or runs
+	 * random draws.
+	 */
+	static List<Config> configs (Properties spec, long seed)
+	{
+		String[] learningRates = values(spec, "learningRate", "0.017");
+		String[] momentums = values(spec, "momentum", "0.9");
+		String[] layers = values(spec, "layers", "64x32");
+		String[] batchSizes = values(spec, "batchSize", "1");
+		List<Config> configs = new ArrayList<>();
+		String search = spec.getProperty("search", "grid").trim();
+		if (search.equals("grid")) {
+			for (String learningRate : learningRates)
+				for (String momentum : momentums)
+					for (String layer : layers)
+						for (String batchSize : batchSizes)
+							configs.add(new Config(Float.parseFloat(learningRate), Float.parseFloat(momentum),
+									layers(layer), Integer.parseInt(batchSize)));
+		} else if (search.equals("random")) {
+			SplitMix64 random = new SplitMix64(seed);
+			int runs = positive(spec, "runs", 16);
+			for (int r=0; r<runs; r++)
+				configs.add(new Config(sample(learningRates, random, true), sample(momentums, random, false),
+						layers(layers[random.nextInt(layers.length)]), Integer.parseInt(batchSizes[random.nextInt(batchSizes.length)])));
+		} else {
+			throw new IllegalArgumentException("Unknown search '"+search+"', expected grid or random");
+		}
+		return configs;
+	}
+
+	/*
+	 * One of the values, or a point of a min..max range, uniform or on a
+	 * log scale.
+	 */
+	private static float sample (String[] values, SplitMix64 random, boolean logScale)
+	{
+		String value = values[random.nextInt(values.length)];
+		int range = value.indexOf("..");
+		if (range < 0)
+			return Float.parseFloat(value);
+		double min = Double.parseDouble(value.substring(0, range));
+		double max = Double.parseDouble(value.substring(range + 2));
+		double u = (random.nextLong() >>> 11) * 0x1.0p-53;
+		if (logScale)
+			return (float) Math.exp(Math.log(min) + u * (Math.log(max) - Math.log(min)));
+		return (float) (min + u * (max - min));
+	}
+
+	private static String[] values (Properties spec, String key, String defaultValue)
+	{
+		String[] values = spec.getProperty(key, defaultValue).split(",");
+		for (int i=0; i<values.length; i++)
+			values[i] = values[i].trim();
+		if (spec.getProperty("search", "grid").trim().equals("grid")) {
+			for (String value : values)
+				if (value.contains(".."))
+					throw new IllegalArgumentException("Ranges like '"+value+"' need search=random");
+		}
+		return values;
+	}
+
+	private static int[] layers (String value)
+	{
+		String[] parts = value.split("x");
+		int[] neurons = new int[parts.length];
+		for (int l=0; l<parts.length; l++)
+			neurons[l] = Integer.parseInt(parts[l].trim());
+		return neurons;
+	}
+
+	private static int positive (Properties spec, String key, int defaultValue)
+	{
+		int value = Integer.parseInt(spec.getProperty(key, Integer.toString(defaultValue)).trim());
+		if (value < 1)
+			throw new IllegalArgumentException("Invalid "+key+" "+value);
+		return value;
+	}
+
+	private static String describe (Config config)
+	{
+		return String.format(Locale.US, "learningRate %s, momentum %s, capas %s, lote %d",
+				config.learningRate, config.momentum, config.layers(), config.batchSize);
+	}
+}
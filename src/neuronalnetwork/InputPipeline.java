@@ -0,0 +1,249 @@
+package neuronalnetwork;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Input of one training epoch, in batches of normalized samples.
+ *
+ * The epoch order is shuffled when a random generator is given. Every batch
+ * holds its samples one after another in a contiguous buffer, with their
+ * labels and, for the sparse input layer, their nonzero pixel segments
+ * copied from the data set's {@link NonzeroIndex}.
+ *
+ * In the background mode a producer thread builds the order and fills the
+ * batches ahead of the trainer, handing them over through a bounded
+ * single-producer single-consumer ring. The trainer gives every batch back
+ * once it is done with it, so only {@link #DEPTH} buffers exist and the
+ * producer fills one while the trainer reads the other. Otherwise each
+ * batch is filled by {@link #take()} on the calling thread, in the same
+ * order, so both modes train exactly the same.
+ */
+final class InputPipeline implements AutoCloseable {
+	static final int DEPTH = 2;
+	private static final int SPINS = 100;
+
+	/**
+	 * Consecutive samples of the epoch.
+	 */
+	static final class Batch {
+		final float[] input;
+		final int[] labels;
+		final int[] offsets;
+		int[] segments;
+		int size;
+
+		private Batch(int capacity, int imageSize, boolean sparse){
+			input = new float[capacity * imageSize];
+			labels = new int[capacity];
+			offsets = sparse ? new int[capacity + 1] : null;
+			segments = sparse ? new int[capacity * 16] : null;
+		}
+	}
+
+	private final Dataset data;
+	private final int batchSize;
+	private final boolean sparse;
+	private final SplitMix64 random;
+	private final Ring filled = new Ring(DEPTH);
+	private final Ring free = new Ring(DEPTH);
+	private final Thread producer;
+	private final Thread consumer;
+	private int[] order;
+	private NonzeroIndex nonzeros;
+	private int next;
+	private volatile boolean done;
+	private volatile boolean closed;
+	private volatile Throwable failure;
+
+	/**
+	 * @param sparse Copy the nonzero pixel segments of every sample
+	 * @param random Generator for the epoch order, null to keep the data
+	 *        set order. In the background mode it belongs to the producer
+	 *        thread until {@link #close()} returns.
+	 * @param background Fill the batches on a producer thread
+	 */
+	InputPipeline(Dataset data, int batchSize, boolean sparse, SplitMix64 random, boolean background){
+		this.data = data;
+		this.batchSize = batchSize;
+		this.sparse = sparse;
+		this.random = random;
+		for(int k=0; k<DEPTH; ++k){
+			free.offer(new Batch(batchSize, data.imageSize(), sparse));
+		}
+		consumer = Thread.currentThread();
+		if(background){
+			producer = new Thread(this::produce, "neuronalnetwork-prefetch");
+			producer.setDaemon(true);
+			producer.start();
+		}else{
+			producer = null;
+		}
+	}
+
+	/**
+	 * Next batch of the epoch, or null when the epoch is over.
+	 */
+	Batch take(){
+		if(producer == null){
+			if(next == 0)
+				prepare();
+			if(next >= data.size())
+				return null;
+			return fill(free.poll());
+		}
+		for(int spins=0; ; ++spins){
+			Batch batch = filled.poll();
+			if(batch != null)
+				return batch;
+			if(done){
+				batch = filled.poll();
+				if(batch != null)
+					return batch;
+				if(failure != null)
+					throw new IllegalStateException("Input pipeline failed", failure);
+				return null;
+			}
+			backOff(spins);
+		}
+	}
+
+	/**
+	 * Give a batch back to be refilled.
+	 */
+	void release(Batch batch){
+		free.offer(batch);
+		if(producer != null)
+			LockSupport.unpark(producer);
+	}
+
+	@Override
+	public void close(){
+		closed = true;
+		if(producer == null)
+			return;
+		LockSupport.unpark(producer);
+		boolean interrupted = false;
+		while(producer.isAlive()){
+			try{
+				producer.join();
+			}catch(InterruptedException e){
+				interrupted = true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private void produce(){
+		try{
+			prepare();
+			while(next < data.size() && !closed){
+				Batch batch = nextFree();
+				if(batch == null)
+					return;
+				filled.offer(fill(batch));
+				LockSupport.unpark(consumer);
+			}
+		}catch(Throwable t){
+			failure = t;
+		}finally{
+			done = true;
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	private void prepare(){
+		if(random != null){
+			order = new int[data.size()];
+			random.permutation(order);
+		}
+		if(sparse)
+			nonzeros = data.nonzeros();
+	}
+
+	private Batch fill(Batch batch){
+		int count = Math.min(batchSize, data.size() - next);
+		int imageSize = data.imageSize();
+		if(batch.offsets != null)
+			batch.offsets[0] = 0;
+		for(int b=0; b<count; ++b){
+			int index = (order == null) ? next + b : order[next + b];
+			data.normalize(index, batch.input, b * imageSize);
+			batch.labels[b] = data.label(index);
+			if(batch.offsets != null)
+				copySegments(index, batch, b);
+		}
+		batch.size = count;
+		next += count;
+		return batch;
+	}
+
+	private void copySegments(int index, Batch batch, int b){
+		int from = 2 * nonzeros.start(index);
+		int length = 2 * nonzeros.end(index) - from;
+		int offset = 2 * batch.offsets[b];
+		if(offset + length > batch.segments.length)
+			batch.segments = Arrays.copyOf(batch.segments, Math.max(2 * batch.segments.length, offset + length));
+		System.arraycopy(nonzeros.segments, from, batch.segments, offset, length);
+		batch.offsets[b + 1] = (offset + length) / 2;
+	}
+
+	private Batch nextFree(){
+		for(int spins=0; ; ++spins){
+			Batch batch = free.poll();
+			if(batch != null || closed)
+				return batch;
+			backOff(spins);
+		}
+	}
+
+	/*
+	 * Each side unparks the other after every offer, and a permit given
+	 * before park() makes it return at once, so no wakeup is lost; callers
+	 * check their condition again after every return.
+	 */
+	private void backOff(int spins){
+		if(spins < SPINS)
+			Thread.onSpinWait();
+		else
+			LockSupport.park(this);
+	}
+
+	/*
+	 * Bounded lock-free queue for one producer and one consumer: each side
+	 * only writes its own counter, and the ordered write (lazySet) of the
+	 * counter publishes the element stored before it.
+	 */
+	private static final class Ring {
+		private final AtomicReferenceArray<Batch> slots;
+		private final AtomicLong head = new AtomicLong();
+		private final AtomicLong tail = new AtomicLong();
+
+		Ring(int capacity){
+			slots = new AtomicReferenceArray<>(capacity);
+		}
+
+		boolean offer(Batch batch){
+			long t = tail.get();
+			if(t - head.get() == slots.length())
+				return false;
+			slots.lazySet((int) (t % slots.length()), batch);
+			tail.lazySet(t + 1);
+			return true;
+		}
+
+		Batch poll(){
+			long h = head.get();
+			if(h == tail.get())
+				return null;
+			int slot = (int) (h % slots.length());
+			Batch batch = slots.get(slot);
+			slots.lazySet(slot, null);
+			head.lazySet(h + 1);
+			return batch;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package neuronalnetwork;
+
+import java.util.logging.Logger;
+
+/**
+ * Inner loops of the per-sample forward pass and weight update.
+ *
+ * The default backend uses the jdk.incubator.vector module when it is
+ * available and falls back to plain scalar loops otherwise. The backend
+ * can be forced with -Dneuronalnetwork.kernels=scalar|vector.
+ */
+abstract class Kernels {
+	protected static final Logger log = Logger.getLogger(Kernels.class.getName());
+
+	static final Kernels KERNELS = select();
+
+	/**
+	 * sum_k a[aOffset+k] * b[bOffset+k], k in [0, length)
+	 */
+	abstract float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+	/**
+	 * out[outOffset + j*outStride] = dot(a, aOffset, b, bOffset + j*bStride,
+	 * length) for j in [0, 4), reading each element of a once. Bit-identical
+	 * to four calls to {@link #dot}.
+	 */
+	abstract void dot4(float[] a, int aOffset, float[] b, int bOffset, int bStride, int length,
+			float[] out, int outOffset, int outStride);
+
+	/**
+	 * {@link #dot} with a widened to float from bfloat16.
+	 */
+	abstract float dot(short[] a, int aOffset, float[] b, int bOffset, int length);
+
+	/**
+	 * sums[k] += weights[offset+k] * factor, k in [0, length), with the
+	 * int8 weights widened to int.
+	 */
+	abstract void accumulate(byte[] weights, int offset, int factor, int[] sums, int length);
+
+	/**
+	 * error[k] = (delta * in[k] * learningRate) + momentum * error[k]
+	 */
+	abstract void momentum(float[] error, int errorOffset, float[] in, int inOffset, int length,
+			float delta, float learningRate, float momentum);
+
+	/**
+	 * error[k] = (gradient[k] * learningRate) + momentum * error[k],
+	 * followed by {@link #adjust} over the whole array.
+	 */
+	abstract void update(float[] weights, float[] error, float[] gradient, float learningRate, float momentum);
+
+	/**
+	 * weights[k] += error[k], unless the result leaves (-1, 1).
+	 */
+	abstract void adjust(float[] weights, float[] error, int offset, int length);
+
+	/**
+	 * One sweep over a row of weights: back[k] += delta * weights[k] with the
+	 * weight before the update (skipped when back is null), then
+	 * {@link #momentum} and {@link #adjust} on the same elements.
+	 */
+	abstract void fused(float[] weights, float[] error, int offset, float[] in, int inOffset, int length,
+			float delta, float learningRate, float momentum, float[] back, int backOffset);
+
+	abstract String name();
+
+	private static Kernels select(){
+		String requested = System.getProperty("neuronalnetwork.kernels", "vector");
+		if(!requested.equals("vector"))
+			return new ScalarKernels();
+		try{
+			return (Kernels) Class.forName("neuronalnetwork.VectorKernels")
+					.getDeclaredConstructor().newInstance();
+		}catch(ReflectiveOperationException | LinkageError e){
+			log.fine("Vector API not available (" + e + "), using scalar kernels");
+		}
+		return new ScalarKernels();
+	}
+}
@@ -0,0 +1,155 @@
+package neuronalnetwork;
+
+import static neuronalnetwork.Kernels.KERNELS;
+
+import java.util.Arrays;
+
+/**
+ * One fully connected layer of a {@link NeuralNetwork} and the buffers of
+ * the sample it is training on.
+ *
+ * The weights are stored row-major, the weight of neuron i for input j at
+ * [i * inputs + j]. The buffers are sized for the layer when it is built,
+ * so the per-sample operations allocate nothing. The class is final and
+ * has no subclasses: the network calls the same methods for every layer
+ * and the calls stay direct.
+ *
+ * The sparse variants only walk the given segments of nonzero inputs, as
+ * in {@link NonzeroIndex}; they are used by the first layer.
+ */
+final class Layer {
+	final int inputs;
+	final int outputs;
+	final float[] weights;
+	/** Momentum term of every weight. */
+	final float[] weightError;
+	final float[] out;
+	/** Error of the outputs. */
+	final float[] outError;
+	/** Error of the weighted sums, before the activation. */
+	final float[] inpError;
+
+	/**
+	 * @param weights Row-major weights, outputs x inputs; not copied
+	 */
+	Layer(int inputs, int outputs, float[] weights){
+		if(weights.length != inputs * outputs)
+			throw new IllegalArgumentException("Layer of " + inputs + "x" + outputs + " with " + weights.length + " weights");
+		this.inputs = inputs;
+		this.outputs = outputs;
+		this.weights = weights;
+		weightError = new float[weights.length];
+		out = new float[outputs];
+		outError = new float[outputs];
+		inpError = new float[outputs];
+	}
+
+	void forward(float[] in, Activation activation){
+		for(int i=0; i<outputs; ++i){
+			out[i] = KERNELS.dot(weights, i * inputs, in, 0, inputs);
+		}
+		activation.apply(out, out, outputs);
+	}
+
+	void forwardSparse(float[] in, int[] segments, int from, int to, Activation activation){
+		for(int i=0; i<outputs; ++i){
+			int row = i * inputs;
+			float sum = 0f;
+			for(int s=from; s<to; ++s){
+				int start = segments[2 * s];
+				sum += KERNELS.dot(weights, row + start, in, start, segments[2 * s + 1] - start);
+			}
+			out[i] = sum;
+		}
+		activation.apply(out, out, outputs);
+	}
+
+	/**
+	 * Output error against the one-hot target of a label.
+	 */
+	void outputError(int label){
+		for(int i=0; i<outputs; ++i){
+			if(label == i){
+				outError[i] = 1.0f - out[i];
+			}else{
+				outError[i] = 0.0f - out[i];
+			}
+		}
+	}
+
+	void inputError(Activation activation){
+		for(int i=0; i<outputs; ++i){
+			inpError[i] = activation.derivative(out[i]) * outError[i];
+		}
+	}
+
+	/**
+	 * Error of the outputs of the previous layer, through the current
+	 * weights.
+	 */
+	void propagate(float[] error){
+		for(int i=0; i<inputs; ++i){
+			error[i] = 0f;
+			for(int j=0; j<outputs; ++j){
+				error[i] = error[i] + inpError[j] * weights[j * inputs + i];
+			}
+		}
+	}
+
+	void momentum(float[] in, float learningRate, float momentum){
+		for(int i=0; i<outputs; ++i){
+			KERNELS.momentum(weightError, i * inputs, in, 0, inputs, inpError[i], learningRate, momentum);
+		}
+	}
+
+	void momentumSparse(float[] in, int[] segments, int from, int to, float learningRate, float momentum){
+		for(int i=0; i<outputs; ++i){
+			int row = i * inputs;
+			for(int s=from; s<to; ++s){
+				int start = segments[2 * s];
+				KERNELS.momentum(weightError, row + start, in, start, segments[2 * s + 1] - start,
+						inpError[i], learningRate, momentum);
+			}
+		}
+	}
+
+	void adjust(){
+		KERNELS.adjust(weights, weightError, 0, weights.length);
+	}
+
+	void adjustSparse(int[] segments, int from, int to){
+		for(int i=0; i<outputs; ++i){
+			int row = i * inputs;
+			for(int s=from; s<to; ++s){
+				int start = segments[2 * s];
+				KERNELS.adjust(weights, weightError, row + start, segments[2 * s + 1] - start);
+			}
+		}
+	}
+
+	/**
+	 * Momentum and adjustment of every weight in one pass, accumulating the
+	 * error of the previous layer with each weight before it changes, see
+	 * {@link Kernels}.
+	 *
+	 * @param error Receives the error of the previous layer, or null
+	 */
+	void fused(float[] in, float[] error, float learningRate, float momentum){
+		if(error != null)
+			Arrays.fill(error, 0f);
+		for(int i=0; i<outputs; ++i){
+			KERNELS.fused(weights, weightError, i * inputs, in, 0, inputs, inpError[i], learningRate, momentum, error, 0);
+		}
+	}
+
+	void fusedSparse(float[] in, int[] segments, int from, int to, float learningRate, float momentum){
+		for(int i=0; i<outputs; ++i){
+			int row = i * inputs;
+			for(int s=from; s<to; ++s){
+				int start = segments[2 * s];
+				KERNELS.fused(weights, weightError, row + start, in, start, segments[2 * s + 1] - start,
+						inpError[i], learningRate, momentum, null, 0);
+			}
+		}
+	}
+}
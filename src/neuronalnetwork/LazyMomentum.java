@@ -0,0 +1,125 @@
+package neuronalnetwork;
+
+/**
+ * Deferred momentum steps of the weights whose input was zero.
+ *
+ * A weight whose input is zero still moves every step: its momentum term
+ * decays, error = momentum * error, and the weight adds it. Instead of
+ * touching it every step, the sparse input layer remembers the last step
+ * each pixel column was updated and catches the column up before reading
+ * it. n skipped steps add error * (m + m^2 + ... + m^n) to the weight and
+ * leave error * m^n as the momentum term, which is what the dense loop
+ * computes up to float rounding.
+ *
+ * The tables of m^n and of the series stop at MAX_STEPS steps. With a
+ * momentum so close to 1 that m^n is not yet 0 there, longer gaps take
+ * the closed form m * (1 - m^n) / (1 - m) computed for their length.
+ *
+ * The weights only move while they stay inside (-1, 1). The skipped steps
+ * all have the sign of the error, so when the start and the end of the
+ * catch-up are inside the range every step was; otherwise the steps are
+ * replayed one by one.
+ */
+final class LazyMomentum {
+	private static final int MAX_STEPS = 1 << 16;
+
+	private final float momentum;
+	private final float[] power;
+	private final float[] series;
+	/** Whether m^n is still above 0 at the end of the tables. */
+	private final boolean truncated;
+
+	/**
+	 * @param momentum Momentum factor, in [0, 1)
+	 */
+	LazyMomentum(float momentum){
+		if(!(momentum >= 0f && momentum < 1f))
+			throw new IllegalArgumentException("Invalid momentum " + momentum);
+		this.momentum = momentum;
+
+		// Tablas hasta que m^n es 0 en float: a partir de ah no cambian
+		int length = 1;
+		double p = 1.0;
+		while(length < MAX_STEPS && (float) p != 0f){
+			p *= momentum;
+			length++;
+		}
+		power = new float[length];
+		series = new float[length];
+		p = 1.0;
+		double sum = 0.0;
+		power[0] = 1f;
+		for(int n=1; n<length; ++n){
+			p *= momentum;
+			sum += p;
+			power[n] = (float) p;
+			series[n] = (float) sum;
+		}
+		truncated = power[length - 1] != 0f;
+	}
+
+	/**
+	 * Bring the columns of a row-major weight matrix inside the segments
+	 * [segments[2*s], segments[2*s+1]), s in [from, to), up to date with
+	 * step - 1, where lastStep[column] is the last step already applied to
+	 * the column.
+	 */
+	void catchUp(float[] weights, float[] error, int rows, int rowLength,
+			int[] segments, int from, int to, int[] lastStep, int step){
+		for(int i=0; i<rows; ++i){
+			int row = i * rowLength;
+			for(int s=from; s<to; ++s){
+				for(int column=segments[2 * s]; column<segments[2 * s + 1]; ++column){
+					int steps = step - 1 - lastStep[column];
+					if(steps > 0)
+						catchUp(weights, error, row + column, steps);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Mark the columns inside the segments as updated at the given step.
+	 */
+	static void touch(int[] segments, int from, int to, int[] lastStep, int step){
+		for(int s=from; s<to; ++s){
+			for(int column=segments[2 * s]; column<segments[2 * s + 1]; ++column){
+				lastStep[column] = step;
+			}
+		}
+	}
+
+	private void catchUp(float[] weights, float[] error, int index, int steps){
+		float e = error[index];
+		if(e == 0f)
+			return;
+		float w = weights[index];
+		float p, sum;
+		if(steps < power.length){
+			p = power[steps];
+			sum = series[steps];
+		}else if(truncated){
+			double pn = Math.pow(momentum, steps);
+			p = (float) pn;
+			sum = (float) (momentum * (1.0 - pn) / (1.0 - momentum));
+		}else{
+			p = power[power.length - 1];
+			sum = series[series.length - 1];
+		}
+		float target = w + e * sum;
+		if(w < 1f && w > -1f && target < 1f && target > -1f){
+			weights[index] = target;
+			error[index] = e * p;
+			return;
+		}
+		for(int s=0; s<steps && e != 0f; ++s){
+			e = momentum * e;
+			float weightSum = w + e;
+			if(weightSum < 1f && weightSum > -1f){
+				w = weightSum;
+			}
+		}
+		weights[index] = w;
+		error[index] = e;
+	}
+}
@@ -1,12 +1,15 @@
 package neuronalnetwork;
 
-import java.io.DataInputStream;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.time.LocalDate;
@@ -26,12 +29,12 @@ public class MNISTDatabase
 	private static final String MNIST_URL = "http://yann.lecun.com/exdb/mnist/";
 	
 	// Training data
-	private static final String trainingImages = "train-images-idx3-ubyte.gz";
-	private static final String trainingLabels = "train-labels-idx1-ubyte.gz";
+	static final String trainingImages = "train-images-idx3-ubyte.gz";
+	static final String trainingLabels = "train-labels-idx1-ubyte.gz";
 	
 	// Test data
-	private static final String testImages = "t10k-images-idx3-ubyte.gz";
-	private static final String testLabels = "t10k-labels-idx1-ubyte.gz";
+	static final String testImages = "t10k-images-idx3-ubyte.gz";
+	static final String testLabels = "t10k-labels-idx1-ubyte.gz";
 	
 	// Logger
 	protected static final Logger log = Logger.getLogger(MNISTDatabase.class.getName());
@@ -92,49 +95,88 @@ public class MNISTDatabase
 	public static int[][][] readImages (String filename)
 			throws IOException
 	{
-		FileInputStream file = null;
-		InputStream gzip = null;
-		DataInputStream data = null;
-		int images[][][] = null;
+		try (IDXReader data = new IDXReader(filename, IMAGES_MAGIC)) {
+			int size = data.dimension(0);
+			int rows = data.dimension(1);
+			int columns = data.dimension(2);
+			int images[][][] = new int[size][rows][columns];
 
-		try {
-			file = new FileInputStream(filename);
-			gzip = new GZIPInputStream(file);
-			data = new DataInputStream(gzip);
-
-			log.info("Reading MNIST data...");
-
-			int magicNumber = data.readInt();
-
-			if (magicNumber!=2051) // 0x00000801 == 08 (unsigned byte) + 03 (3D tensor, i.e. multiple 2D images)
-				throw new IOException("Error while reading MNIST data from "+filename);
-
-			int size = data.readInt();
-			int rows = data.readInt();
-			int columns = data.readInt();
-
-			images = new int[size][rows][columns];
-			
 			log.info("Reading "+size+" "+rows+"x"+columns+" images...");
 
-			for (int i=0; i<size; i++)
-				for (int j=0; j<rows; j++)
-					for (int k=0; k<columns; k++)
-						images[i][j][k] = data.readUnsignedByte();
+			int i = 0, j = 0, k = 0;
+			while (data.fill()) {
+				ByteBuffer chunk = data.chunk();
+				while (chunk.hasRemaining()) {
+					images[i][j][k] = chunk.get() & 0xFF;
+					if (++k == columns) {
+						k = 0;
+						if (++j == rows) {
+							j = 0;
+							i++;
+						}
+					}
+				}
+			}
 
 			log.info("MNIST images read from "+filename);
+			return images;
+		}
+	}
+	
+	/**
+	 * Read MNIST image data as raw pixels.
+	 * 
+	 * @param filename File name
+	 * @return Unsigned byte pixels, one image after another in row-major order
+	 * @throws IOException
+	 */
+	public static byte[] readImagesRaw (String filename)
+			throws IOException
+	{
+		try (IDXReader data = new IDXReader(filename, IMAGES_MAGIC)) {
+			byte pixels[] = new byte[data.elements()];
+			
+			log.info("Reading "+data.dimension(0)+" "+data.dimension(1)+"x"+data.dimension(2)+" images...");
+
+			int position = 0;
+			while (data.fill()) {
+				ByteBuffer chunk = data.chunk();
+				int length = chunk.remaining();
+				chunk.get(pixels, position, length);
+				position += length;
+			}
 
-		} finally {
-
-			if (data!=null)
-				data.close();
-			if (gzip!=null)
-				gzip.close();
-			if (file!=null)
-				file.close();
+			log.info("MNIST images read from "+filename);
+			return pixels;
 		}
+	}
+	
+	/**
+	 * Read MNIST image data and normalize it to [0,1] while decoding.
+	 * 
+	 * @param filename File name
+	 * @return Floating-point pixels, one image after another in row-major order
+	 * @throws IOException
+	 */
+	public static float[] readImagesNormalized (String filename)
+			throws IOException
+	{
+		try (IDXReader data = new IDXReader(filename, IMAGES_MAGIC)) {
+			float pixels[] = new float[data.elements()];
+			
+			log.info("Reading "+data.dimension(0)+" "+data.dimension(1)+"x"+data.dimension(2)+" images...");
+
+			int position = 0;
+			while (data.fill()) {
+				ByteBuffer chunk = data.chunk();
+				while (chunk.hasRemaining()) {
+					pixels[position++] = (float)(chunk.get() & 0xFF) / 255f;
+				}
+			}
 
-		return images;
+			log.info("MNIST images read from "+filename);
+			return pixels;
+		}
 	}
 	
 	/**
@@ -147,43 +189,143 @@ public class MNISTDatabase
 	public static int[] readLabels (String filename)
 		throws IOException
 	{
-		FileInputStream file = null;
-		InputStream gzip = null;
-		DataInputStream data = null;
-		int labels[] = null;
-
-		try {
-			file = new FileInputStream(filename);
-			gzip = new GZIPInputStream(file);
-			data = new DataInputStream(gzip);
-
-			log.info("Reading MNIST labels...");
-
-			int magicNumber = data.readInt();
-
-			if (magicNumber!=2049) // 0x00000801 == 08 (unsigned byte) + 01 (vector)
-				throw new IOException("Error while reading MNIST labels from "+filename);
-
-			int size = data.readInt();
-			
-			labels = new int[size];
-
-			for (int i=0; i<size; i++)
-				labels[i] = data.readUnsignedByte();
+		try (IDXReader data = new IDXReader(filename, LABELS_MAGIC)) {
+			int labels[] = new int[data.dimension(0)];
+
+			int position = 0;
+			while (data.fill()) {
+				ByteBuffer chunk = data.chunk();
+				while (chunk.hasRemaining()) {
+					labels[position++] = chunk.get() & 0xFF;
+				}
+			}
 
 			log.info("MNIST labels read from "+filename);
-
-		} finally {
-			
-			if (data!=null)
-				data.close();
-			if (gzip!=null)
-				gzip.close();
-			if (file!=null)
-				file.close();
+			return labels;
+		}
+	}
+	
+	/**
+	 * Read MNIST images and labels as a packed data set of raw pixels,
+	 * normalized when each image is fed to the network.
+	 * 
+	 * @param imagesFile Image file name
+	 * @param labelsFile Label file name
+	 * @return Data set with one byte per pixel
+	 * @throws IOException
+	 */
+	public static Dataset readDataset (String imagesFile, String labelsFile)
+		throws IOException
+	{
+		int imageSize;
+		try (IDXReader data = new IDXReader(imagesFile, IMAGES_MAGIC)) {
+			imageSize = data.dimension(1) * data.dimension(2);
 		}
+		return Dataset.ofPixels(readImagesRaw(imagesFile), readLabels(labelsFile), imageSize);
+	}
+	
+	
+	// IDX decoding
+	
+	static final int IMAGES_MAGIC = 2051; // 0x00000803 == 08 (unsigned byte) + 03 (3D tensor, i.e. multiple 2D images)
+	private static final int LABELS_MAGIC = 2049; // 0x00000801 == 08 (unsigned byte) + 01 (vector)
+	private static final int CHUNK_SIZE = 1 << 16;
+	
+	/**
+	 * Bulk reader for IDX files of unsigned bytes, gzipped when the name
+	 * ends in .gz. The payload is read in large chunks into a single
+	 * reusable buffer.
+	 */
+	static class IDXReader implements Closeable
+	{
+		private final InputStream input;
+		private final int dimensions[];
+		private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+		private long remaining;
 		
-		return labels;
+		IDXReader (String filename, int magic) throws IOException
+		{
+			input = filename.endsWith(".gz") ? new GZIPInputStream(new FileInputStream(filename), CHUNK_SIZE)
+					: new BufferedInputStream(new FileInputStream(filename), CHUNK_SIZE);
+			try {
+				log.info("Reading MNIST data...");
+				
+				ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+				readFully(header, Integer.BYTES);
+				if (header.getInt(0) != magic)
+					throw new IOException("Error while reading MNIST data from "+filename);
+				
+				dimensions = new int[magic & 0xFF];
+				long elements = 1;
+				for (int d=0; d<dimensions.length; d++) {
+					header.clear();
+					readFully(header, Integer.BYTES);
+					dimensions[d] = header.getInt(0);
+					elements *= dimensions[d];
+				}
+				if (elements > Integer.MAX_VALUE)
+					throw new IOException("MNIST data too large in "+filename);
+				remaining = elements;
+			} catch (IOException e) {
+				input.close();
+				throw e;
+			}
+		}
+		
+		int dimension (int d)
+		{
+			return dimensions[d];
+		}
+		
+		int elements ()
+		{
+			int elements = 1;
+			for (int dimension : dimensions)
+				elements *= dimension;
+			return elements;
+		}
+		
+		/**
+		 * Inflate the next chunk of the payload.
+		 * 
+		 * @return false once the whole payload has been read
+		 */
+		boolean fill () throws IOException
+		{
+			if (remaining == 0)
+				return false;
+			chunk.clear();
+			int length = (int) Math.min(CHUNK_SIZE, remaining);
+			readFully(chunk, length);
+			chunk.flip();
+			remaining -= length;
+			return true;
+		}
+		
+		ByteBuffer chunk ()
+		{
+			return chunk;
+		}
+		
+		private void readFully (ByteBuffer buffer, int length) throws IOException
+		{
+			byte array[] = buffer.array();
+			int position = buffer.position();
+			int end = position + length;
+			while (position < end) {
+				int read = input.read(array, position, end - position);
+				if (read < 0)
+					throw new EOFException("Unexpected end of MNIST data");
+				position += read;
+			}
+			buffer.position(end);
+		}
+		
+		@Override
+		public void close () throws IOException
+		{
+			input.close();
+		}
 	}
 
 	
@@ -251,52 +393,52 @@ public class MNISTDatabase
 	public static void main (String[] args) throws IOException{
 		boolean loadfile = false;
 		String version = "v5.0";
-		int IMAGESIZE = 28;
-		int images[][][];
-		int tImages[][][];
-		images = readImages("data/mnist/"+trainingImages);
-		tImages = readImages("data/mnist/"+testImages);
-		
-		
-		int labels[], tLabels[];
-		labels = readLabels("data/mnist/"+trainingLabels);
-		tLabels = readLabels("data/mnist/"+testLabels);
-
-		
-		float trainData[][][] = new float[images.length][IMAGESIZE][IMAGESIZE];
-		float testData[][][] = new float[tImages.length][IMAGESIZE][IMAGESIZE];
-		// Normalize image data
-		for(int i=0; i<trainData.length; ++i){
-			 trainData[i] = normalize(images[i]);
-		}
-		for(int i=0; i<testData.length; ++i){
-			testData[i] = normalize(tImages[i]);
-		}
+		// Training state saved after every epoch, to resume a killed run
+		File checkpoint = new File("data/checkpoint.bin");
+		// Raw uint8 pixels, one image after another, cached between runs and
+		// normalized as each image is trained
+		DatasetCache training = DatasetCache.open("data/mnist/"+trainingImages, "data/mnist/"+trainingLabels, "data/mnist/training.cache");
+		DatasetCache test = DatasetCache.open("data/mnist/"+testImages, "data/mnist/"+testLabels, "data/mnist/test.cache");
+		Dataset trainData = training.dataset();
+		Dataset testData = test.dataset();
 	
 		
 		NeuralNetwork net = new NeuralNetwork(!loadfile);
+		net.setEarlyStopping(5);
+		net.setKeepBestModel(true);
+		net.setTargetAccuracy(0.97f);
 		if(!loadfile){
+			net.setCheckpoint(checkpoint.getPath(), 1);
+			if(checkpoint.exists()){
+				System.out.println("Reanudando desde el punto de control '" + checkpoint + "'");
+				net.resume(checkpoint.getPath());
+			}
 			System.out.println("Entrenando la red " + version);
 			long startTime = System.currentTimeMillis();
-			net.trainNetwork(trainData, labels, testData, tLabels);
+			net.trainNetwork(trainData, testData);
 			long stopTime = System.currentTimeMillis();
 			System.out.println("Tiempo transcurrido de entrenamiento: " + (stopTime-startTime)/1000L + "s");
 			
 			System.out.println("Probando el conjunto de entrenamiento");
-			net.testNetwork(trainData, labels);
+			net.testNetwork(trainData);
 			
 			System.out.println("Probando un conjunto no entrenado");
-			net.testNetwork(testData, tLabels);
+			net.testNetwork(testData);
 			
 			String filename = Integer.toString(LocalDate.now().getDayOfMonth()) + "_" 
 			+ Integer.toString(LocalTime.now().getHour()) + "-" 
-					+ Integer.toString(LocalTime.now().getMinute()) + ".txt";
+					+ Integer.toString(LocalTime.now().getMinute()) + ".bin";
 			System.out.println("Guardando Pesos en el fichero '" + filename + "'");
 			net.saveWeights(filename);
+			System.out.println("Guardando el modelo int8 en el fichero '" + filename + ".q8'");
+			net.toModel().quantize().write(filename + ".q8");
+			System.out.println("Guardando el modelo bfloat16 en el fichero '" + filename + ".bf16'");
+			net.toModel().toBfloat16().write(filename + ".bf16");
+			checkpoint.delete();
 		}else{
 			net.loadWeights("7_20-38.txt");
-			net.testNetwork(trainData, labels);
-			net.testNetwork(testData, tLabels);
+			net.testNetwork(trainData);
+			net.testNetwork(testData);
 			System.out.println(net.getLabels());
 		}
 		
@@ -0,0 +1,115 @@
+package neuronalnetwork;
+
+/**
+ * Cache-blocked matrix kernels over flat row-major float arrays.
+ *
+ * Every kernel keeps the summation order of the per-sample loops in
+ * NeuralNetwork, so a batch of one sample gives bit-identical results.
+ */
+final class MatrixKernels {
+	// Samples processed together against the same weight row
+	private static final int SAMPLE_BLOCK = 4;
+	// Columns of a gradient row kept hot while the batch is streamed
+	private static final int COLUMN_BLOCK = 256;
+
+	private MatrixKernels(){
+	}
+
+	/**
+	 * out[b][i] = sum_k in[b][k] * weights[i][k]
+	 *
+	 * @param in Batch of input vectors, rows x inner
+	 * @param rows Number of samples in the batch
+	 * @param weights Weight matrix, outs x inner
+	 * @param outs Number of neurons
+	 * @param inner Fan-in of each neuron
+	 * @param out Weighted sums, rows x outs
+	 */
+	static void multiplyTransposed(float[] in, int rows, float[] weights, int outs, int inner, float[] out){
+		int b = 0;
+		for(; b + SAMPLE_BLOCK <= rows; b += SAMPLE_BLOCK){
+			int in0 = b * inner;
+			int in1 = in0 + inner;
+			int in2 = in1 + inner;
+			int in3 = in2 + inner;
+			for(int i=0; i<outs; ++i){
+				int row = i * inner;
+				float sum0 = 0f, sum1 = 0f, sum2 = 0f, sum3 = 0f;
+				for(int k=0; k<inner; ++k){
+					float w = weights[row + k];
+					sum0 += w * in[in0 + k];
+					sum1 += w * in[in1 + k];
+					sum2 += w * in[in2 + k];
+					sum3 += w * in[in3 + k];
+				}
+				out[b * outs + i] = sum0;
+				out[(b + 1) * outs + i] = sum1;
+				out[(b + 2) * outs + i] = sum2;
+				out[(b + 3) * outs + i] = sum3;
+			}
+		}
+		for(; b < rows; ++b){
+			int inRow = b * inner;
+			for(int i=0; i<outs; ++i){
+				int row = i * inner;
+				float sum = 0f;
+				for(int k=0; k<inner; ++k){
+					sum += weights[row + k] * in[inRow + k];
+				}
+				out[b * outs + i] = sum;
+			}
+		}
+	}
+
+	/**
+	 * error[b][k] = sum_i delta[b][i] * weights[i][k]
+	 *
+	 * @param delta Batch of neuron deltas, rows x outs
+	 * @param rows Number of samples in the batch
+	 * @param weights Weight matrix, outs x inner
+	 * @param outs Number of neurons
+	 * @param inner Fan-in of each neuron
+	 * @param error Error propagated to the previous layer, rows x inner
+	 */
+	static void multiply(float[] delta, int rows, float[] weights, int outs, int inner, float[] error){
+		for(int b=0; b<rows; ++b){
+			int errRow = b * inner;
+			for(int k=0; k<inner; ++k){
+				error[errRow + k] = 0f;
+			}
+			for(int i=0; i<outs; ++i){
+				float d = delta[b * outs + i];
+				int row = i * inner;
+				for(int k=0; k<inner; ++k){
+					error[errRow + k] += d * weights[row + k];
+				}
+			}
+		}
+	}
+
+	/**
+	 * gradient[i][k] += sum_b delta[b][i] * in[b][k]
+	 *
+	 * @param delta Batch of neuron deltas, rows x outs
+	 * @param rows Number of samples in the batch
+	 * @param in Batch of input vectors, rows x inner
+	 * @param outs Number of neurons
+	 * @param inner Fan-in of each neuron
+	 * @param gradient Accumulated gradient, outs x inner
+	 */
+	static void accumulateOuterProduct(float[] delta, int rows, float[] in, int outs, int inner, float[] gradient){
+		for(int i=0; i<outs; ++i){
+			int row = i * inner;
+			for(int k0=0; k0<inner; k0 += COLUMN_BLOCK){
+				int k1 = Math.min(inner, k0 + COLUMN_BLOCK);
+				for(int b=0; b<rows; ++b){
+					float d = delta[b * outs + i];
+					int inRow = b * inner;
+					for(int k=k0; k<k1; ++k){
+						gradient[row + k] += d * in[inRow + k];
+					}
+				}
+			}
+		}
+	}
+}
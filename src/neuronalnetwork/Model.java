@@ -0,0 +1,201 @@
+package neuronalnetwork;
+
+import static neuronalnetwork.Kernels.KERNELS;
+
+import java.io.IOException;
+
+/**
+ * Immutable trained network for inference.
+ *
+ * A model owns a private copy of the weights and never changes them, so
+ * one instance can serve any number of threads. The activations of every
+ * call live in per-thread scratch buffers, allocated the first time a
+ * thread uses the model, so {@link #predict(float[])} and
+ * {@link #predictBatch(float[], int, int[])} allocate nothing afterwards.
+ *
+ * Single predictions use the same kernels as {@link NeuralNetwork}, so
+ * they match its evaluation. The class is the largest weighted sum of the
+ * output layer: its activation, sigmoid or softmax, keeps the order, so it
+ * is not applied, and works for networks trained with either output.
+ */
+public final class Model {
+	/** Samples propagated together by {@link #predictBatch(float[], int, int[])}. */
+	public static final int BATCH = 64;
+
+	private final int[] sizes;
+	private final int inputSize;
+	private final int numOutput;
+	private final float[][] weights;
+	private final Activation activation;
+	private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(this::newScratch);
+
+	/*
+	 * Buffers of one thread. The batch ones are only created by the first
+	 * batch prediction.
+	 */
+	private static final class Scratch {
+		final float[][] out;
+		float[][] batchOut;
+
+		Scratch(int[] sizes){
+			out = new float[sizes.length - 1][];
+			for(int l=0; l<out.length; ++l){
+				out[l] = new float[sizes[l + 1]];
+			}
+		}
+	}
+
+	/**
+	 * @param sizes Layer sizes, input size first
+	 * @param weights Row-major weights of each layer; they are copied
+	 */
+	Model(int[] sizes, float[][] weights, Activation activation){
+		if(weights.length < 1 || sizes.length != weights.length + 1)
+			throw new IllegalArgumentException("Expected " + (sizes.length - 1) + " weight layers, got " + weights.length);
+		this.weights = new float[weights.length][];
+		for(int l=0; l<weights.length; ++l){
+			if(weights[l].length != sizes[l] * sizes[l + 1])
+				throw new IllegalArgumentException("Layer " + l + " has " + weights[l].length + " weights");
+			this.weights[l] = weights[l].clone();
+		}
+		this.sizes = sizes.clone();
+		inputSize = sizes[0];
+		numOutput = sizes[sizes.length - 1];
+		this.activation = activation;
+	}
+
+	/**
+	 * Model from a weight file written by {@link NeuralNetwork#saveWeights(String)}
+	 * or {@link NeuralNetwork#saveWeightsText(String)}, with the default
+	 * activation.
+	 */
+	public static Model load(String filename) throws IOException {
+		NeuralNetwork network = new NeuralNetwork(false);
+		network.loadWeights(filename);
+		return network.toModel();
+	}
+
+	private Scratch newScratch(){
+		return new Scratch(sizes);
+	}
+
+	/**
+	 * Copy of this model with the input layer quantized to int8, see
+	 * {@link QuantizedModel}.
+	 */
+	public QuantizedModel quantize(){
+		return QuantizedModel.quantize(sizes, weights, activation);
+	}
+
+	/**
+	 * Copy of this model with every weight rounded to bfloat16, see
+	 * {@link Bfloat16Model}.
+	 */
+	public Bfloat16Model toBfloat16(){
+		return new Bfloat16Model(sizes, weights, activation);
+	}
+
+	/** Pixels per image. */
+	public int getInputSize(){
+		return inputSize;
+	}
+
+	/** Number of classes. */
+	public int getOutputSize(){
+		return numOutput;
+	}
+
+	/**
+	 * Size in bytes of the weights.
+	 */
+	public long weightBytes(){
+		long count = 0;
+		for(float[] layer : weights){
+			count += layer.length;
+		}
+		return count * Float.BYTES;
+	}
+
+	/**
+	 * Class of one normalized image.
+	 */
+	public int predict(float[] pixels){
+		if(pixels.length != inputSize)
+			throw new IllegalArgumentException("Images of " + pixels.length + " pixels, expected " + inputSize);
+		return predict(pixels, 0);
+	}
+
+	/**
+	 * Class of the normalized image at pixels[offset, offset + inputSize).
+	 */
+	public int predict(float[] pixels, int offset){
+		if(offset < 0 || offset > pixels.length - inputSize)
+			throw new IllegalArgumentException("No image at offset " + offset);
+		Scratch s = scratch.get();
+		float[] in = pixels;
+		for(int l=0; l<weights.length; ++l){
+			int inputs = sizes[l];
+			float[] out = s.out[l];
+			for(int i=0; i<out.length; ++i){
+				out[i] = KERNELS.dot(weights[l], i * inputs, in, offset, inputs);
+			}
+			if(l < weights.length - 1)
+				activation.apply(out, out, out.length);
+			in = out;
+			offset = 0;
+		}
+		return NeuralNetwork.argmax(in, 0, numOutput);
+	}
+
+	/**
+	 * Classes of count normalized images stored one after another. Blocks
+	 * of {@link #BATCH} images are propagated together, reading each weight
+	 * row once per four samples instead of once per sample. The results are
+	 * the same as {@link #predict(float[])}.
+	 *
+	 * @param predictions Receives the class of image i at index i
+	 */
+	public void predictBatch(float[] pixels, int count, int[] predictions){
+		if(count < 0 || (long) count * inputSize > pixels.length || count > predictions.length)
+			throw new IllegalArgumentException("Invalid batch of " + count + " images");
+		Scratch s = scratch.get();
+		if(s.batchOut == null){
+			s.batchOut = new float[weights.length][];
+			for(int l=0; l<weights.length; ++l){
+				s.batchOut[l] = new float[BATCH * sizes[l + 1]];
+			}
+		}
+		float[] output = s.batchOut[weights.length - 1];
+		for(int start=0; start<count; start+=BATCH){
+			int rows = Math.min(BATCH, count - start);
+			layer(pixels, start * inputSize, rows, weights[0], sizes[1], inputSize, s.batchOut[0], weights.length > 1);
+			for(int l=1; l<weights.length; ++l){
+				layer(s.batchOut[l - 1], 0, rows, weights[l], sizes[l + 1], sizes[l], s.batchOut[l], l < weights.length - 1);
+			}
+			for(int b=0; b<rows; ++b){
+				predictions[start + b] = NeuralNetwork.argmax(output, b * numOutput, numOutput);
+			}
+		}
+	}
+
+	/*
+	 * Activations of one layer for rows samples, four samples per pass over
+	 * each weight row, or only the sums without activate. Same sums as the
+	 * single prediction.
+	 */
+	private void layer(float[] in, int offset, int rows, float[] weights, int outs, int inner, float[] out, boolean activate){
+		int b = 0;
+		for(; b + 4 <= rows; b += 4){
+			for(int i=0; i<outs; ++i){
+				KERNELS.dot4(weights, i * inner, in, offset + b * inner, inner, inner, out, b * outs + i, outs);
+			}
+		}
+		for(; b < rows; ++b){
+			for(int i=0; i<outs; ++i){
+				out[b * outs + i] = KERNELS.dot(weights, i * inner, in, offset + b * inner, inner);
+			}
+		}
+		if(activate)
+			activation.apply(out, out, rows * outs);
+	}
+}
@@ -5,99 +5,239 @@ import java.io.BufferedWriter;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
-public class NeuralNetwork {
+import static neuronalnetwork.Kernels.KERNELS;
+
+public class NeuralNetwork implements AutoCloseable {
 	protected static final Logger log = Logger.getLogger(NeuralNetwork.class.getName());
 	private final int IMAGESIZE = 28;
-	private final int epochs = 60;
-	private final float learningRate = 0.017f;
-	private final float momentum = 0.9f;
+	private final int INPUTSIZE = IMAGESIZE * IMAGESIZE;
+	private int epochs = 60;
+	private float learningRate = 0.017f;
+	private float momentum = 0.9f;
 	private final float maxRandom = 0.1f;
 	private final float minRandom = -0.1f;
-	private int numInputNeurons = 64;
-	private int numHiddenNeurons = 32;
 	private final int numOutputNeurons = 10;
+	private int[] sizes = { INPUTSIZE, 64, 32, numOutputNeurons };
+	private static final int MIN_EVALUATION_CHUNK = 1024;
+	private static final int PREFETCH_BATCH = 256;
+	private static final long DEFAULT_SEED = 0x5DEECE66DL;
 	private int hits = 0;
-	private String resultLabels;
-	
-	
-	private float[][][] inputWeightArray;
-	private float[][][] inputInpArray;
-	private float[] inputOutArray;
-	private float[] inputOutError;
-	private float[] inputInpError;
-	private float[][][] inputWeightError;
-	
-	private float[][] hiddenWeightArray;
-	private float[][] hiddenInpArray;
-	private float[] hiddenOutArray;
-	private float[] hiddenOutError;
-	private float[] hiddenInpError;
-	private float[][] hiddenWeightError;
-	
-	private float[][] outputWeightArray;
-	private float[][] outputInpArray;
-	private float[] outputOutArray;
-	private float[] outputOutError;
-	private float[] outputInpError;
-	private float[][] outputWeightError;
+	private Activation activation = Activation.SIGMOID;
+	private boolean softmaxOutput = false;
+	private int batchSize = 1;
+	private int threads = 1;
+	private boolean hogwild = false;
+	private boolean sparseInput = true;
+	private boolean fusedBackpropagation = true;
+	private boolean shuffle = true;
+	private boolean prefetch = true;
+	private final SplitMix64 random = new SplitMix64(DEFAULT_SEED);
+	private int validationInterval = 1;
+	private int validationSamples = 0;
+	private int validationSubsample = 0;
+	private int patience = 0;
+	private boolean keepBestModel = false;
+	private float targetAccuracy = 0f;
+	private Validator validator;
+	private String checkpointFile;
+	private int checkpointInterval = 1;
+	private int firstEpoch = 0;
+	private long samplesTrained = 0;
+	private byte[] predictions = new byte[0];
+	private int numPredictions = 0;
+	private int[] confusion;
+	private BatchWorkspace batch;
+	private BatchWorkspace[] workers;
+	private NeuralNetwork[] views;
+	private ExecutorService pool;
+	private int poolSize;
+	private final TrainingMonitor monitor = new TrainingMonitor();
+	private long mark;
+	
+	
+	/*
+	 * Capas de la red, de la imagen a la salida, segn los tamaos de
+	 * sizes: la capa l tiene sizes[l] entradas y sizes[l + 1] neuronas. Los
+	 * pesos de cada capa se guardan en un nico vector plano por filas (ver
+	 * Layer) y todas las neuronas leen el mismo vector de activacin de la
+	 * capa anterior, sin copias por neurona. La primera capa, la de entrada,
+	 * lee la imagen de inputInpArray.
+	 */
+	private Layer[] layers;
+	private float[] inputInpArray;
+	
+	/*
+	 * Capa de entrada dispersa: tramos de pxeles no nulos de la imagen
+	 * actual y, por cada pxel, el ltimo paso en que se actualiz su
+	 * columna de pesos.
+	 */
+	private int[] inputSegments;
+	private int inputFrom;
+	private int inputTo;
+	private final int[] wholeImage = { 0, INPUTSIZE };
+	private int[] inputWeightStep;
+	private int step;
+	private LazyMomentum lazyMomentum;
 	
 	public NeuralNetwork(boolean initialize){
 		if(initialize)
 			initializeArrays();
 	}
 	
+	/**
+	 * Red con pesos aleatorios y el nmero de neuronas indicado en la capa
+	 * de entrada y en la capa intermedia.
+	 */
+	public NeuralNetwork(int numInputNeurons, int numHiddenNeurons){
+		this(new int[] { numInputNeurons, numHiddenNeurons });
+	}
+	
+	/**
+	 * Red con pesos aleatorios y una capa por cada nmero de neuronas
+	 * indicado, en orden desde la imagen, seguidas de la capa de salida.
+	 * Sin ninguno, la imagen se conecta directamente con la salida.
+	 */
+	public NeuralNetwork(int[] neurons){
+		this(neurons, DEFAULT_SEED);
+	}
+	
+	/**
+	 * Como la anterior, pero con los pesos iniciales y el orden de las
+	 * pocas sacados de la semilla dada: dos redes con la misma semilla y
+	 * la misma topologa empiezan con los mismos pesos y entrenan igual.
+	 */
+	public NeuralNetwork(int[] neurons, long seed){
+		for(int n : neurons){
+			if(n < 1)
+				throw new IllegalArgumentException("Invalid layer sizes " + Arrays.toString(neurons));
+		}
+		sizes = new int[neurons.length + 2];
+		sizes[0] = INPUTSIZE;
+		System.arraycopy(neurons, 0, sizes, 1, neurons.length);
+		sizes[sizes.length - 1] = numOutputNeurons;
+		random.setState(seed);
+		initializeArrays();
+	}
+	
+	/*
+	 * Red sobre los pesos dados con sus propios buffers de activacin, error
+	 * y momento. Con los vectores de otra red es una vista que los comparte,
+	 * para que varios hilos entrenen o evalen la misma red a la vez.
+	 */
+	private NeuralNetwork(NeuralNetwork shared, float[][] weights){
+		activation = shared.activation;
+		softmaxOutput = shared.softmaxOutput;
+		sizes = shared.sizes;
+		learningRate = shared.learningRate;
+		momentum = shared.momentum;
+		initializeBuffers(weights);
+	}
+	
+	/*
+	 * Pesos iniciales del mismo generador que luego baraja las pocas,
+	 * para que la semilla fije toda la ejecucin.
+	 */
 	private void initializeArrays(){
-		inputWeightArray = new float[numInputNeurons][IMAGESIZE][IMAGESIZE];
-		inputInpArray = new float[numInputNeurons][IMAGESIZE][IMAGESIZE];
-		inputOutArray = new float[numInputNeurons];
-		inputOutError = new float[numInputNeurons];
-		inputInpError = new float[numInputNeurons];
-		inputWeightError = new float[numInputNeurons][IMAGESIZE][IMAGESIZE];
-		
-		hiddenWeightArray = new float [numHiddenNeurons][numInputNeurons];
-		hiddenInpArray = new float[numHiddenNeurons][numInputNeurons];
-		hiddenOutArray = new float[numHiddenNeurons];
-		hiddenOutError = new float[numHiddenNeurons];
-		hiddenInpError = new float[numHiddenNeurons];
-		hiddenWeightError = new float[numHiddenNeurons][numInputNeurons];
-		
-		outputWeightArray = new float [numOutputNeurons][numHiddenNeurons];
-		outputInpArray = new float[numOutputNeurons][numHiddenNeurons];
-		outputOutArray = new float[numOutputNeurons];
-		outputOutError = new float[numOutputNeurons];
-		outputInpError = new float[numOutputNeurons];
-		outputWeightError = new float[numOutputNeurons][numHiddenNeurons];
-		
-		Random r = new Random();
-		for(int i=0; i<numInputNeurons; ++i){
-			for(int j=0; j<IMAGESIZE; ++j){
-				for(int k=0; k<IMAGESIZE; ++k){
-					inputWeightArray[i][j][k] = minRandom + (maxRandom - minRandom) * r.nextFloat();
-					inputWeightError[i][j][k] = 0.0f;
-				}
+		float[][] weights = emptyWeights();
+		for(int l=0; l<weights.length; ++l){
+			for(int i=0; i<weights[l].length; ++i){
+				weights[l][i] = minRandom + (maxRandom - minRandom) * random.nextFloat();
 			}
 		}
-		
-		for(int i=0; i<numHiddenNeurons; ++i){
-			for(int j=0; j<numInputNeurons; ++j){
-				hiddenWeightArray[i][j] = minRandom + (maxRandom - minRandom) * r.nextFloat();
-				hiddenWeightError[i][j] = 0.0f;
-			}
+		initializeBuffers(weights);
+	}
+	
+	private float[][] emptyWeights(){
+		float[][] weights = new float[sizes.length - 1][];
+		for(int l=0; l<weights.length; ++l){
+			weights[l] = new float[sizes[l + 1] * sizes[l]];
 		}
+		return weights;
+	}
+	
+	private void initializeBuffers(float[][] weights){
+		layers = new Layer[weights.length];
+		for(int l=0; l<layers.length; ++l){
+			layers[l] = new Layer(sizes[l], sizes[l + 1], weights[l]);
+		}
+		inputInpArray = new float[INPUTSIZE];
+		inputWeightStep = new int[INPUTSIZE];
+		Arrays.fill(inputWeightStep, -1);
+		step = 0;
+		lazyMomentum = new LazyMomentum(momentum);
 		
-		for(int i=0; i<numOutputNeurons; ++i){
-			for(int j=0; j<numHiddenNeurons; ++j){
-				outputWeightArray[i][j] = minRandom + (maxRandom - minRandom) * r.nextFloat();
-				outputWeightError[i][j] = 0.0f;
-			}
+		batch = null;
+		workers = null;
+		views = null;
+	}
+	
+	private float[][] weights(){
+		float[][] weights = new float[layers.length][];
+		for(int l=0; l<layers.length; ++l){
+			weights[l] = layers[l].weights;
 		}
+		return weights;
+	}
+	
+	/**
+	 * Nmero de entradas de la primera capa (los pxeles de la imagen) y de
+	 * neuronas de cada capa, hasta la de salida.
+	 */
+	public int[] getLayerSizes(){
+		return sizes.clone();
+	}
+	
+	/**
+	 * Funcin de activacin de todas las neuronas. Por defecto
+	 * {@link Activation#SIGMOID}; {@link Activation#EXACT_SIGMOID} reproduce
+	 * los resultados de la sigmoide original con Math.exp.
+	 */
+	public void setActivation(Activation activation){
+		this.activation = activation;
+		batch = null;
+		workers = null;
+		views = null;
+	}
+	
+	/**
+	 * Tasa de aprendizaje (0.017 por defecto).
+	 */
+	public void setLearningRate(float learningRate){
+		if(!(learningRate > 0f))
+			throw new IllegalArgumentException("Invalid learning rate " + learningRate);
+		this.learningRate = learningRate;
+		views = null;
 	}
 	
-	private float sigmoid(float value){
-		return (float) (1.0 / (1.0 + Math.exp(-value)));
+	/**
+	 * Factor de momento, en [0, 1) (0.9 por defecto). El momento pendiente
+	 * de la capa de entrada dispersa se aplica antes con el factor anterior.
+	 */
+	public void setMomentum(float momentum){
+		LazyMomentum lazy = new LazyMomentum(momentum);
+		flushInputWeights();
+		this.momentum = momentum;
+		lazyMomentum = lazy;
+		views = null;
+	}
+	
+	/**
+	 * Nmero mximo de pocas de trainNetwork (60 por defecto).
+	 */
+	public void setEpochs(int epochs){
+		if(epochs < 1)
+			throw new IllegalArgumentException("Invalid epoch count " + epochs);
+		this.epochs = epochs;
 	}
 	
 	/*private float noise(float b, float sigma, float value){
@@ -105,304 +245,902 @@ public class NeuralNetwork {
 	}*/
 	
 	public void testNetwork(float[][][] data, int[] label){
-		hits = 0;
-		resultLabels = "";
-		for(int i=0; i<data.length; ++i){
-			testImage(data[i], label[i]);
-		}
-		float tasaError = (1f-(float)hits/data.length);
+		testNetwork(Dataset.of(data, label));
+	}
+	
+	/**
+	 * Evala imgenes almacenadas una tras otra en un nico vector, como las
+	 * devuelve {@link MNISTDatabase#readImagesNormalized(String)}.
+	 */
+	public void testNetwork(float[] data, int[] label){
+		testNetwork(Dataset.of(data, label, INPUTSIZE));
+	}
+	
+	public void testNetwork(Dataset data){
+		checkDataSet(data);
+		evaluate(data);
+		float tasaError = (1f-(float)hits/data.size());
 		System.out.println(" Aciertos: " + hits + ", Tasa de error: " + tasaError*100 + "%");
 	}
 	
-	private void testImage(float[][] image, int label){
-		insertImage(image);
-		sumInputAndWeightsINP();
+	/*
+	 * Evala el conjunto repartindolo entre los ncleos disponibles. Cada
+	 * hilo usa una vista con sus propios buffers y escribe sus predicciones
+	 * en su tramo del vector compartido; los aciertos y la matriz de
+	 * confusin de cada tramo se suman al final.
+	 */
+	int evaluate(Dataset data){
+		long start = System.nanoTime();
+		final int size = data.size();
+		if(predictions.length < size)
+			predictions = new byte[size];
+		numPredictions = size;
 		
-		forwardPropagationMiddle();
-		sumInputAndWeightsHID();
-		forwardPropagationOutside();
-		sumInputAndWeightsOUT();
+		int parts = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), size / MIN_EVALUATION_CHUNK));
+		final NeuralNetwork[] workers = views(parts);
+		final int chunk = (size + parts - 1) / parts;
+		if(parts == 1){
+			workers[0].testImages(data, 0, size, predictions);
+		}else{
+			List<Callable<Void>> tasks = new ArrayList<>(parts);
+			for(int t=0; t<parts; ++t){
+				final NeuralNetwork view = workers[t];
+				final int from = Math.min(size, t * chunk);
+				final int to = Math.min(size, from + chunk);
+				tasks.add(() -> {
+					view.testImages(data, from, to, predictions);
+					return null;
+				});
+			}
+			invokeAll(pool(parts), tasks);
+		}
 		
-		int output = networkOutput();
-		checkLabel(output, label);
-		resultLabels += Integer.toString(output);
-	}
-	
-	public void trainNetwork(float[][][] data, int[] label, float[][][] testData, int[] testLabel){
-		int output;
-		float tasaError;
-		for(int e=0; e<epochs; ++e){
-			hits = 0;
-			for(int i=0; i<data.length; ++i){
-				trainImage(data[i], label[i]);
-				output = networkOutput();
-				checkLabel(output, label[i]);
+		hits = 0;
+		if(confusion == null)
+			confusion = new int[numOutputNeurons * numOutputNeurons];
+		Arrays.fill(confusion, 0);
+		for(int t=0; t<parts; ++t){
+			hits += workers[t].hits;
+			for(int i=0; i<confusion.length; ++i){
+				confusion[i] += workers[t].confusion[i];
 			}
-			tasaError = (1f-(float)hits/data.length);
-			System.out.println("poca " + e + " -> Aciertos: " + hits + ", Tasa de error: " + tasaError*100 + "%");
-			testNetwork(testData, testLabel);
 		}
+		monitor.evaluated(hits, size, System.nanoTime() - start);
+		return hits;
 	}
 	
+	private void testImages(Dataset data, int from, int to, byte[] results){
+		hits = 0;
+		if(confusion == null)
+			confusion = new int[numOutputNeurons * numOutputNeurons];
+		Arrays.fill(confusion, 0);
+		for(int i=from; i<to; ++i){
+			int label = data.label(i);
+			int output = testImage(data, i);
+			checkLabel(output, label);
+			confusion[label * numOutputNeurons + output]++;
+			results[i] = (byte) output;
+		}
+	}
 	
-	private void trainImage(float[][] image, int label){
-		insertImage(image);
-		sumInputAndWeightsINP();
-		
-		forwardPropagationMiddle();
-		sumInputAndWeightsHID();
-		forwardPropagationOutside();
-		sumInputAndWeightsOUT();
+	int testImage(Dataset data, int index){
+		insertImage(data, index);
+		float[] in = inputInpArray;
+		for(int l=0; l<layers.length; ++l){
+			layers[l].forward(in, activation(l));
+			in = layers[l].out;
+		}
+		normalizeOutput();
 		
-		backpropagate(label);
+		return networkOutput();
 	}
 	
-	private void insertImage(float[][] image){
-		for(int i=0; i<numInputNeurons; ++i){
-			inputInpArray[i] = image;
-		}
+	/**
+	 * Nmero de imgenes por actualizacin de pesos. Con 1 (por defecto) se
+	 * entrena imagen a imagen; con ms se acumula el gradiente de todo el lote
+	 * y se aplica un nico paso de momento por lote.
+	 */
+	public void setBatchSize(int batchSize){
+		if(batchSize < 1)
+			throw new IllegalArgumentException("Invalid batch size " + batchSize);
+		this.batchSize = batchSize;
 	}
 	
-	private int networkOutput(){
-		float maximo = 0.0f;
-		int output = 0;
-		for(int s=0; s<numOutputNeurons; ++s){
-			if(outputOutArray[s] > maximo){
-				maximo = outputOutArray[s];
-				output = s;
-			}
-		}
-		return output;
+	/**
+	 * Nmero de hilos del entrenamiento por lotes. Cada lote se reparte en
+	 * tantos trozos como hilos, cada hilo calcula el gradiente de su trozo con
+	 * sus propios buffers y los gradientes parciales se suman en un rbol de
+	 * orden fijo, de modo que dos ejecuciones con los mismos hilos dan los
+	 * mismos pesos.
+	 */
+	public void setThreads(int threads){
+		if(threads < 1)
+			throw new IllegalArgumentException("Invalid thread count " + threads);
+		this.threads = threads;
 	}
 	
-	private void checkLabel(int output, int label){
-		if(output == label)
-			hits++;
+	/**
+	 * Entrenamiento asncrono estilo Hogwild. Con varios hilos, cada hilo
+	 * entrena imagen a imagen sobre los mismos vectores de pesos, sin
+	 * bloqueos y con sus propios buffers de momento. Sustituye al
+	 * entrenamiento por lotes cuando est activo.
+	 */
+	public void setHogwild(boolean hogwild){
+		this.hogwild = hogwild;
 	}
 	
-	private void sumInputAndWeightsINP(){
-		float sum = 0f;
-		for(int i=0; i<numInputNeurons; ++i){
-			sum = 0f;
-			for(int j=0; j<IMAGESIZE; ++j){
-				for(int k=0; k<IMAGESIZE; ++k){
-					sum += inputWeightArray[i][j][k] * (inputInpArray[i][j][k] 
-							/*+ noise(0.1f, 0.6f, inputInpArray[i][j][k])*/);
-				}
-			}
-			inputOutArray[i] = sigmoid(sum);
-		}
+	/**
+	 * Capa de entrada dispersa en el entrenamiento imagen a imagen (activa
+	 * por defecto). La propagacin y el gradiente de la capa de entrada solo
+	 * recorren los pxeles no nulos de cada imagen; el momento de los pesos
+	 * de pxeles nulos se aplica de golpe la prxima vez que se leen, con el
+	 * mismo resultado que el recorrido completo salvo el redondeo.
+	 */
+	public void setSparseInput(boolean sparseInput){
+		this.sparseInput = sparseInput;
+		views = null;
 	}
 	
-	private void sumInputAndWeightsHID(){
-		float sum = 0f;
-		for(int i=0; i<numHiddenNeurons; ++i){
-			sum = 0f;
-			for(int j=0; j<numInputNeurons; ++j){
-				sum += hiddenWeightArray[i][j] * hiddenInpArray[i][j];
-			}
-			hiddenOutArray[i] = sigmoid(sum);
-		}
+	/**
+	 * Retropropagacin imagen a imagen en una sola pasada por capa (activa
+	 * por defecto): cada peso se lee una vez para propagar el error a la capa
+	 * anterior, antes de cambiarlo, y en el mismo recorrido se calcula su
+	 * momento y se ajusta. Da los mismos pesos, bit a bit, que las pasadas
+	 * separadas de propagacin del error, momento y ajuste.
+	 */
+	public void setFusedBackpropagation(boolean fusedBackpropagation){
+		this.fusedBackpropagation = fusedBackpropagation;
+		views = null;
 	}
 	
-	private void sumInputAndWeightsOUT(){
-		float sum = 0f;
-		for(int i=0; i<numOutputNeurons; ++i){
-			sum = 0f;
-			for(int j=0; j<numHiddenNeurons; ++j){
-				sum += outputWeightArray[i][j] * outputInpArray[i][j];
-			}
-			outputOutArray[i] = sigmoid(sum);
-		}
+	/**
+	 * Capa de salida softmax entrenada con entropa cruzada, en lugar de
+	 * sigmoides independientes con error cuadrtico (por defecto). El error
+	 * de cada salida no se multiplica por la derivada de la sigmoide, as
+	 * que una salida saturada en el valor equivocado sigue aprendiendo
+	 * deprisa. No cambia el formato de los pesos: la clase es la mayor suma
+	 * de la capa de salida con cualquiera de las dos.
+	 */
+	public void setSoftmaxOutput(boolean softmaxOutput){
+		this.softmaxOutput = softmaxOutput;
+		batch = null;
+		workers = null;
+		views = null;
+	}
+	
+	/**
+	 * Baraja el orden de las imgenes en cada poca (activo por defecto).
+	 * El orden sale de un generador con semilla, as que dos redes con la
+	 * misma semilla y los mismos pesos entrenan igual. Sin barajar se
+	 * recorre el conjunto en su orden original, como antes.
+	 */
+	public void setShuffle(boolean shuffle){
+		this.shuffle = shuffle;
+	}
+	
+	/**
+	 * Semilla del generador que baraja cada poca. Reinicia la secuencia
+	 * de rdenes: la prxima poca es la primera de esa semilla. No toca
+	 * los pesos; para fijar tambin los iniciales, la semilla se pasa al
+	 * constructor.
+	 */
+	public void setSeed(long seed){
+		random.setState(seed);
+	}
+	
+	/**
+	 * Prepara la entrada en un hilo aparte (activo por defecto): mientras
+	 * se entrena un lote, otro hilo baraja, normaliza y copia las imgenes
+	 * del siguiente en un buffer contiguo. No cambia el resultado, solo
+	 * saca ese trabajo del hilo de entrenamiento. No se usa con Hogwild.
+	 */
+	public void setPrefetch(boolean prefetch){
+		this.prefetch = prefetch;
+	}
+	
+	public void trainNetwork(float[][][] data, int[] label, float[][][] testData, int[] testLabel){
+		trainNetwork(Dataset.of(data, label), Dataset.of(testData, testLabel));
+	}
+	
+	/**
+	 * Entrena con imgenes almacenadas una tras otra en un nico vector, como
+	 * las devuelve {@link MNISTDatabase#readImagesNormalized(String)}.
+	 */
+	public void trainNetwork(float[] data, int[] label, float[] testData, int[] testLabel){
+		trainNetwork(Dataset.of(data, label, INPUTSIZE), Dataset.of(testData, testLabel, INPUTSIZE));
 	}
 	
-	private void forwardPropagationMiddle(){
-		for(int i=0; i<numHiddenNeurons; ++i){
-			for(int j=0; j<inputOutArray.length; ++j){
-				hiddenInpArray[i][j] = inputOutArray[j];
+	/**
+	 * Entrena hasta el nmero de pocas de {@link #setEpochs(int)}. El conjunto de test se evala
+	 * en segundo plano sobre una copia de los pesos mientras sigue el
+	 * entrenamiento, con la cadencia de {@link #setValidationInterval(int)}
+	 * o {@link #setValidationSampleInterval(int)}, y puede parar antes con
+	 * {@link #setEarlyStopping(int)}.
+	 */
+	public void trainNetwork(Dataset data, Dataset testData){
+		checkDataSet(data);
+		checkDataSet(testData);
+		float tasaError;
+		validator = new Validator(validationSet(testData, validationSubsample), validationInterval, validationSamples, patience, keepBestModel, targetAccuracy);
+		CheckpointWriter checkpoints = (checkpointFile != null) ? new CheckpointWriter(checkpointFile, sizes) : null;
+		try{
+			if(firstEpoch > 0){
+				System.out.println("Reanudando en la poca " + firstEpoch + " tras " + samplesTrained + " muestras");
+				validator.resume(samplesTrained);
 			}
+			for(int e=firstEpoch; e<epochs && !validator.stopRequested(); ++e){
+				validator.startEpoch(e);
+				trainEpoch(data, false);
+				tasaError = (1f-(float)hits/data.size());
+				System.out.println("poca " + e + " -> Aciertos: " + hits + ", Tasa de error: " + tasaError*100 + "%");
+				if(validator.epochFinished())
+					submitSnapshot();
+				Validator.Result result = validator.poll();
+				if(result != null)
+					monitor.evaluated(result.hits, result.size, 0);
+				monitor.finishEpoch();
+				if(checkpoints != null && (e + 1) % checkpointInterval == 0)
+					checkpoints.submit(layers, new Checkpoint.State(e + 1, samplesTrained, random.state(), learningRate, momentum));
+			}
+			boolean stopped = validator.stopRequested();
+			validator.await();
+			if(stopped)
+				System.out.println("Parada temprana: " + patience + " validaciones seguidas sin mejorar");
+			Validator.Result best = validator.best();
+			if(best != null)
+				System.out.println("Mejor validacin: poca " + best.epoch + ", " + best.samples + " muestras -> Tasa de error: " + best.errorRate()*100 + "%");
+			if(targetAccuracy > 0f && validator.reached() == null)
+				System.out.println("Objetivo del " + targetAccuracy*100 + "% de aciertos no alcanzado");
+			if(validator.bestNetwork() != null)
+				restoreWeights(validator.bestNetwork());
+		}finally{
+			validator.close();
+			validator = null;
+			firstEpoch = 0;
+			if(checkpoints != null)
+				checkpoints.close();
 		}
 	}
 	
-	private void forwardPropagationOutside(){
-		for(int i=0; i<numOutputNeurons; ++i){
-			for(int j=0; j<hiddenOutArray.length; ++j){
-				outputInpArray[i][j] = hiddenOutArray[j];
-			}
+	/**
+	 * Guarda un punto de control cada tantas pocas de trainNetwork en el
+	 * fichero indicado, con los pesos, el momento, la posicin del
+	 * entrenamiento y el estado del generador que baraja. Los pesos se
+	 * copian y se escriben en segundo plano: el fichero se sustituye de
+	 * una vez cuando el nuevo est completo en disco. Con null no se
+	 * guardan.
+	 */
+	public void setCheckpoint(String filename, int epochs){
+		if(epochs < 1)
+			throw new IllegalArgumentException("Invalid checkpoint interval " + epochs);
+		this.checkpointFile = filename;
+		this.checkpointInterval = epochs;
+	}
+	
+	/**
+	 * Carga un punto de control de {@link #setCheckpoint(String, int)}. El
+	 * prximo trainNetwork sigue en la poca siguiente a la guardada y
+	 * entrena, bit a bit, igual que si no se hubiera interrumpido, salvo con
+	 * Hogwild, cuyos hilos tienen su propio momento. La validacin empieza
+	 * de nuevo: la parada temprana y el mejor modelo solo cuentan desde aqu.
+	 */
+	public void resume(String filename) throws IOException{
+		Checkpoint checkpoint = Checkpoint.read(filename);
+		if(checkpoint.state == null)
+			throw new IOException("No training state in " + filename);
+		checkTopology(checkpoint, filename);
+		Checkpoint.State state = checkpoint.state;
+		sizes = checkpoint.sizes;
+		learningRate = state.learningRate;
+		momentum = state.momentum;
+		initializeBuffers(checkpoint.weights);
+		for(int l=0; l<layers.length; ++l){
+			System.arraycopy(checkpoint.weightErrors[l], 0, layers[l].weightError, 0, layers[l].weightError.length);
 		}
+		random.setState(state.randomState);
+		firstEpoch = state.epoch;
+		samplesTrained = state.samples;
+		monitor.setEpoch(state.epoch);
+		log.info("Resumed from " + filename);
 	}
 	
-	private void backpropagate(int label){
-		backpropagateOUT(label);
-		
-		backpropagateHID();
-		
-		backpropagateINP();
-		adjustWeightINP();
-		
-		adjustWeightHID();
-		
-		adjustWeightOUT();
+	/**
+	 * Valida cada tantas pocas (1 por defecto).
+	 */
+	public void setValidationInterval(int epochs){
+		if(epochs < 1)
+			throw new IllegalArgumentException("Invalid validation interval " + epochs);
+		this.validationInterval = epochs;
 	}
 	
-	private void backpropagateOUT(int label){
-		calculateOutputErrorOUT(label);
-		calculateInputErrorOUT();
-		calculateWeightErrorOUT();
+	/**
+	 * Valida cada tantas muestras entrenadas, tambin a mitad de poca, en
+	 * lugar de por pocas. Con 0 (por defecto) se valida por pocas.
+	 */
+	public void setValidationSampleInterval(int samples){
+		if(samples < 0)
+			throw new IllegalArgumentException("Invalid validation interval " + samples);
+		this.validationSamples = samples;
 	}
 	
-	private void backpropagateHID(){
-		calculateOutputErrorHID();
-		calculateInputErrorHID();
-		calculateWeightErrorHID();
+	/**
+	 * Valida con una submuestra fija del conjunto de test de este tamao,
+	 * la misma en todas las validaciones. Con 0 (por defecto) se usa el
+	 * conjunto completo.
+	 */
+	public void setValidationSubsample(int samples){
+		if(samples < 0)
+			throw new IllegalArgumentException("Invalid validation subsample " + samples);
+		this.validationSubsample = samples;
 	}
 	
-	private void backpropagateINP(){
-		calculateOutputErrorINP();
-		calculateInputErrorINP();
-		calculateWeightErrorINP();
+	/**
+	 * Para el entrenamiento tras tantas validaciones seguidas sin mejorar la
+	 * mejor tasa de error. La validacin va en segundo plano y cada
+	 * resultado se recoge al entregar la copia siguiente, as que la parada
+	 * llega al final de la poca de esa entrega, una validacin ms tarde,
+	 * pero siempre en el mismo punto con la misma semilla. Con 0 (por
+	 * defecto) se entrenan siempre todas las pocas.
+	 */
+	public void setEarlyStopping(int patience){
+		if(patience < 0)
+			throw new IllegalArgumentException("Invalid patience " + patience);
+		this.patience = patience;
 	}
-
 	
+	/**
+	 * Al acabar trainNetwork deja en la red los pesos de la validacin con
+	 * menor tasa de error, en lugar de los de la ltima poca.
+	 */
+	public void setKeepBestModel(boolean keepBestModel){
+		this.keepBestModel = keepBestModel;
+	}
 	
+	/**
+	 * Informa del tiempo que tarda el entrenamiento en llegar a esta
+	 * proporcin de aciertos en la validacin, en (0, 1]: el tiempo real
+	 * desde que empieza trainNetwork hasta la copia de los pesos de la
+	 * primera validacin que la alcanza, sin contar la propia validacin.
+	 * Con 0 (por defecto) no se informa.
+	 */
+	public void setTargetAccuracy(float accuracy){
+		if(!(accuracy >= 0f && accuracy <= 1f))
+			throw new IllegalArgumentException("Invalid target accuracy " + accuracy);
+		this.targetAccuracy = accuracy;
+	}
 	
 	/*
-	 * Mtodos de clculo de error de salida
-	 */	
-	private void calculateOutputErrorOUT(int label){
-		for(int i=0; i<numOutputNeurons; ++i){
-			if(label == i){
-				outputOutError[i] = 1.0f - outputOutArray[i];
-			}else{
-				outputOutError[i] = 0.0f - outputOutArray[i];
-			}
+	 * Submuestra fija del conjunto de validacin, en orden creciente para
+	 * leerlo de forma secuencial. Con 0 muestras, el conjunto completo.
+	 */
+	static Dataset validationSet(Dataset testData, int samples){
+		if(samples == 0 || samples >= testData.size())
+			return testData;
+		int[] order = new int[testData.size()];
+		new SplitMix64(DEFAULT_SEED).permutation(order);
+		int[] indices = Arrays.copyOf(order, samples);
+		Arrays.sort(indices);
+		return testData.subset(indices);
+	}
+	
+	/*
+	 * Cuenta las muestras entrenadas para la validacin y le entrega una
+	 * copia de los pesos cuando toca.
+	 */
+	private void trained(int samples){
+		samplesTrained += samples;
+		if(validator != null && validator.trained(samples))
+			submitSnapshot();
+	}
+	
+	private void submitSnapshot(){
+		long start = System.nanoTime();
+		validator.submit(snapshot());
+		monitor.phases[TrainingMonitor.EVALUATION] += System.nanoTime() - start;
+	}
+	
+	/*
+	 * Red independiente con una copia de los pesos actuales y del estado
+	 * del generador que baraja, con el momento pendiente de la capa de
+	 * entrada dispersa ya aplicado en la copia.
+	 */
+	NeuralNetwork snapshot(){
+		float[][] weights = weights();
+		for(int l=0; l<weights.length; ++l){
+			weights[l] = weights[l].clone();
 		}
+		NeuralNetwork copy = new NeuralNetwork(this, weights);
+		copy.random.setState(random.state());
+		if(step > 0){
+			Layer input = copy.layers[0];
+			System.arraycopy(layers[0].weightError, 0, input.weightError, 0, input.weightError.length);
+			lazyMomentum.catchUp(input.weights, input.weightError, input.outputs, INPUTSIZE,
+					wholeImage, 0, 1, inputWeightStep, step);
+		}
+		return copy;
 	}
 	
-	private void calculateInputErrorOUT(){
-		for(int i=0; i<numOutputNeurons; ++i){
-			outputInpError[i] = outputOutArray[i] * (1.0f - outputOutArray[i]) * outputOutError[i];
+	/*
+	 * Copia en memoria de lo que guarda un punto de control tras las pocas
+	 * indicadas: pesos, momento y estado del generador que baraja. Entre
+	 * pocas el momento de la capa de entrada dispersa ya est aplicado.
+	 */
+	Checkpoint checkpoint(int epoch){
+		float[][] weights = new float[layers.length][];
+		float[][] weightErrors = new float[layers.length][];
+		for(int l=0; l<layers.length; ++l){
+			weights[l] = layers[l].weights.clone();
+			weightErrors[l] = layers[l].weightError.clone();
 		}
+		return new Checkpoint(sizes.clone(), weights, weightErrors,
+				new Checkpoint.State(epoch, samplesTrained, random.state(), learningRate, momentum));
 	}
 	
-	private void calculateWeightErrorOUT(){
-		for(int i=0; i<numOutputNeurons; ++i){
-			for(int j=0; j<numHiddenNeurons; ++j){
-				outputWeightError[i][j] = (outputInpError[i] * hiddenOutArray[j] * learningRate) 
-						+ momentum * outputWeightError[i][j];
-			}
+	/*
+	 * Aciertos en el conjunto, en el hilo que llama y sin tocar las
+	 * estadsticas de la ltima evaluacin.
+	 */
+	int validate(Dataset data){
+		int validHits = 0;
+		for(int i=0; i<data.size(); ++i){
+			if(testImage(data, i) == data.label(i))
+				validHits++;
 		}
+		return validHits;
 	}
 	
-	private void adjustWeightOUT(){
-		float weightSum;
-		for(int i=0; i<numOutputNeurons; ++i){
-			for(int j=0; j<numHiddenNeurons; ++j){
-				weightSum = outputWeightArray[i][j] + outputWeightError[i][j];
-				if(weightSum < 1f && weightSum > -1f){
-					outputWeightArray[i][j] = weightSum;
+	/*
+	 * Copia los pesos de otra red. El momento acumulado corresponde a los
+	 * pesos descartados, as que se pone a cero.
+	 */
+	private void restoreWeights(NeuralNetwork source){
+		for(int l=0; l<layers.length; ++l){
+			System.arraycopy(source.layers[l].weights, 0, layers[l].weights, 0, layers[l].weights.length);
+			Arrays.fill(layers[l].weightError, 0f);
+		}
+		Arrays.fill(inputWeightStep, -1);
+		step = 0;
+	}
+	
+	/**
+	 * Registra un oyente que recibe, con datos estructurados, el progreso
+	 * del entrenamiento cada cierto nmero de muestras y al final de cada
+	 * poca. Sin oyentes (ni grabacin JFR de los eventos de
+	 * entrenamiento) no se mide el tiempo de cada fase.
+	 */
+	public void addTrainingListener(TrainingListener listener){
+		monitor.addListener(listener);
+	}
+	
+	public void removeTrainingListener(TrainingListener listener){
+		monitor.removeListener(listener);
+	}
+	
+	/**
+	 * Nmero de muestras entre dos avisos de progreso a los oyentes (10000
+	 * por defecto).
+	 */
+	public void setProgressInterval(int samples){
+		monitor.setProgressInterval(samples);
+	}
+	
+	int trainEpoch(Dataset data){
+		return trainEpoch(data, true);
+	}
+	
+	/*
+	 * Con report a false el fin de la poca se notifica despus, para
+	 * incluir la evaluacin que hace trainNetwork tras cada poca.
+	 */
+	private int trainEpoch(Dataset data, boolean report){
+		monitor.startEpoch(layers.length);
+		hits = 0;
+		if(hogwild && threads > 1){
+			trainHogwild(data);
+		}else if(batchSize > 1 || threads > 1){
+			try(InputPipeline input = new InputPipeline(data, batchSize, false, shuffle ? random : null, prefetch)){
+				trainBatches(input);
+			}
+		}else{
+			try(InputPipeline input = new InputPipeline(data, PREFETCH_BATCH, sparseInput, shuffle ? random : null, prefetch)){
+				int done = 0;
+				for(InputPipeline.Batch samples; (samples = input.take()) != null; input.release(samples)){
+					for(int b=0; b<samples.size; ++b){
+						trainSample(samples, b);
+						checkLabel(networkOutput(), samples.labels[b]);
+						if(monitor.active)
+							monitor.progress(++done, hits);
+						trained(1);
+					}
 				}
 			}
+			flushInputWeights();
 		}
+		monitor.endTraining(data.size(), hits);
+		if(report)
+			monitor.finishEpoch();
+		return hits;
 	}
 	
+	private void checkDataSet(Dataset data){
+		if(data.imageSize() != INPUTSIZE)
+			throw new IllegalArgumentException("Images of " + data.imageSize() + " pixels, expected " + INPUTSIZE);
+	}
 	
+	private NeuralNetwork[] views(int count){
+		if(views == null || views.length < count){
+			NeuralNetwork[] created = new NeuralNetwork[count];
+			for(int t=0; t<count; ++t){
+				created[t] = (views != null && t < views.length) ? views[t] : new NeuralNetwork(this, weights());
+				created[t].sparseInput = sparseInput;
+				created[t].fusedBackpropagation = fusedBackpropagation;
+			}
+			views = created;
+		}
+		return views;
+	}
 	
+	private void trainHogwild(Dataset data){
+		final NeuralNetwork[] views = views(threads);
+		final int[] order = new int[data.size()];
+		if(shuffle){
+			random.permutation(order);
+		}else{
+			Arrays.setAll(order, i -> i);
+		}
+		List<Callable<Void>> tasks = new ArrayList<>(threads);
+		for(int t=0; t<threads; ++t){
+			final NeuralNetwork view = views[t];
+			final int first = t;
+			tasks.add(() -> {
+				view.hits = 0;
+				for(int i=first; i<data.size(); i+=threads){
+					view.trainImage(data, order[i]);
+					view.checkLabel(view.networkOutput(), data.label(order[i]));
+				}
+				view.flushInputWeights();
+				return null;
+			});
+		}
+		invokeAll(pool(threads), tasks);
+		for(int t=0; t<threads; ++t){
+			hits += views[t].hits;
+		}
+		trained(data.size());
+	}
 	
+	/*
+	 * Entrena una sola muestra fuera de trainNetwork, para el aprendizaje
+	 * en lnea, y dice si la red ya la clasificaba bien.
+	 */
+	boolean trainOnline(Dataset data, int index){
+		checkDataSet(data);
+		trainImage(data, index);
+		boolean hit = networkOutput() == data.label(index);
+		trained(1);
+		return hit;
+	}
 	
+	void trainImage(Dataset data, int index){
+		if(monitor.active)
+			mark = System.nanoTime();
+		insertImage(data, index);
+		if(sparseInput){
+			NonzeroIndex nonzeros = data.nonzeros();
+			inputSegments = nonzeros.segments;
+			inputFrom = nonzeros.start(index);
+			inputTo = nonzeros.end(index);
+		}
+		trainInput(data.label(index));
+	}
 	
-	
+	/*
+	 * Igual que trainImage con la muestra b de un lote ya normalizado.
+	 */
+	private void trainSample(InputPipeline.Batch samples, int b){
+		if(monitor.active)
+			mark = System.nanoTime();
+		System.arraycopy(samples.input, b * INPUTSIZE, inputInpArray, 0, INPUTSIZE);
+		if(sparseInput){
+			inputSegments = samples.segments;
+			inputFrom = samples.offsets[b];
+			inputTo = samples.offsets[b + 1];
+		}
+		trainInput(samples.labels[b]);
+	}
 	
 	/*
-	 * Mtodos de clculo de error en la capa intermedia
+	 * Propagacin y retropropagacin de la imagen ya copiada en
+	 * inputInpArray; con la capa de entrada dispersa, sus tramos no nulos
+	 * estn en inputSegments[inputFrom, inputTo).
 	 */
-	private void calculateOutputErrorHID(){
-		for(int i=0; i<numHiddenNeurons; ++i){
-			hiddenOutError[i] = 0f;
-			for(int j=0; j<numOutputNeurons; ++j){
-				hiddenOutError[i] = hiddenOutError[i] + outputInpError[j] * outputWeightArray[j][i];
-			}
+	private void trainInput(int label){
+		Layer input = layers[0];
+		if(sparseInput){
+			lap(TrainingMonitor.FORWARD);
+			lazyMomentum.catchUp(input.weights, input.weightError, input.outputs, INPUTSIZE,
+					inputSegments, inputFrom, inputTo, inputWeightStep, step);
+			lap(phase(0));
+			input.forwardSparse(inputInpArray, inputSegments, inputFrom, inputTo, activation(0));
+		}else{
+			input.forward(inputInpArray, activation(0));
+		}
+		for(int l=1; l<layers.length; ++l){
+			layers[l].forward(layers[l - 1].out, activation(l));
+		}
+		normalizeOutput();
+		lap(TrainingMonitor.FORWARD);
+		
+		backpropagate(label);
+		if(sparseInput){
+			LazyMomentum.touch(inputSegments, inputFrom, inputTo, inputWeightStep, step);
+			step++;
 		}
 	}
 	
-	private void calculateInputErrorHID(){
-		for(int i=0; i<numHiddenNeurons; ++i){
-			hiddenInpError[i] = hiddenOutArray[i] * (1.0f - hiddenOutArray[i]) * hiddenOutError[i];
+	/*
+	 * Fase del monitor a la que se suma la retropropagacin de una capa.
+	 */
+	private static int phase(int l){
+		return TrainingMonitor.BACKPROPAGATION + l;
+	}
+	
+	/*
+	 * Suma el tiempo desde la ltima marca a una fase, solo si alguien
+	 * recibe las estadsticas.
+	 */
+	private void lap(int phase){
+		if(monitor.active){
+			long now = System.nanoTime();
+			monitor.phases[phase] += now - mark;
+			mark = now;
 		}
 	}
 	
-	private void calculateWeightErrorHID(){
-		for(int i=0; i<numHiddenNeurons; ++i){
-			for(int j=0; j<numInputNeurons; ++j){
-				hiddenWeightError[i][j] = (hiddenInpError[i] * inputOutArray[j] * learningRate) 
-						+ momentum * hiddenWeightError[i][j];
+	/*
+	 * Aplica el momento pendiente de todas las columnas de la capa de
+	 * entrada, para que los pesos estn al da fuera del entrenamiento.
+	 */
+	private void flushInputWeights(){
+		if(step == 0)
+			return;
+		lazyMomentum.catchUp(layers[0].weights, layers[0].weightError, layers[0].outputs, INPUTSIZE,
+				wholeImage, 0, 1, inputWeightStep, step);
+		Arrays.fill(inputWeightStep, -1);
+		step = 0;
+	}
+	
+	private void trainBatches(InputPipeline input){
+		if(threads > 1){
+			trainBatchesParallel(input);
+			return;
+		}
+		if(batch == null || batch.capacity != batchSize)
+			batch = new BatchWorkspace(batchSize, activation, softmaxOutput, sizes);
+		int done = 0;
+		for(InputPipeline.Batch samples; (samples = input.take()) != null; ){
+			if(monitor.active)
+				mark = System.nanoTime();
+			batch.load(samples, 0, samples.size);
+			input.release(samples);
+			batch.forward(layers);
+			lap(TrainingMonitor.FORWARD);
+			for(int l=layers.length-1; l>=0; --l){
+				batch.backward(l, layers[l].weights);
+				lap(phase(l));
 			}
+			hits += batch.hits;
+			for(int l=0; l<layers.length; ++l){
+				adjustWeights(layers[l], batch.gradients[l]);
+				lap(phase(l));
+			}
+			done += batch.size;
+			if(monitor.active)
+				monitor.progress(done, hits);
+			trained(batch.size);
 		}
 	}
 	
-	private void adjustWeightHID(){
-		float weightSum;
-		for(int i=0; i<numHiddenNeurons; ++i){
-			for(int j=0; j<numInputNeurons; ++j){
-				weightSum = hiddenWeightArray[i][j] + hiddenWeightError[i][j];
-				if(weightSum < 1f && weightSum > -1f){
-					hiddenWeightArray[i][j] = weightSum;
+	private void trainBatchesParallel(InputPipeline input){
+		final int shardSize = (batchSize + threads - 1) / threads;
+		if(workers == null || workers.length != threads || workers[0].capacity != shardSize){
+			workers = new BatchWorkspace[threads];
+			for(int t=0; t<threads; ++t){
+				workers[t] = new BatchWorkspace(shardSize, activation, softmaxOutput, sizes);
+			}
+		}
+		ExecutorService pool = pool(threads);
+		List<Callable<Void>> tasks = new ArrayList<>(threads);
+		int done = 0;
+		for(InputPipeline.Batch samples; (samples = input.take()) != null; input.release(samples)){
+			final InputPipeline.Batch source = samples;
+			int shards = (samples.size + shardSize - 1) / shardSize;
+			
+			tasks.clear();
+			for(int s=0; s<shards; ++s){
+				final BatchWorkspace worker = workers[s];
+				final int from = s * shardSize;
+				final int count = Math.min(shardSize, samples.size - from);
+				tasks.add(() -> {
+					worker.load(source, from, count);
+					worker.forward(layers);
+					worker.backward(layers);
+					return null;
+				});
+			}
+			invokeAll(pool, tasks);
+			
+			// Reduccin en rbol: (0+1, 2+3, ...), (0+2, 4+6, ...), ...
+			for(int stride=1; stride<shards; stride*=2){
+				tasks.clear();
+				for(int s=0; s+stride<shards; s+=2*stride){
+					final BatchWorkspace sum = workers[s];
+					final BatchWorkspace other = workers[s + stride];
+					tasks.add(() -> {
+						sum.addGradients(other);
+						return null;
+					});
 				}
+				invokeAll(pool, tasks);
 			}
+			
+			for(int s=0; s<shards; ++s){
+				hits += workers[s].hits;
+			}
+			adjustWeightsBatch(workers[0]);
+			done += samples.size;
+			if(monitor.active)
+				monitor.progress(done, hits);
+			trained(samples.size);
 		}
-		
 	}
 	
+	/*
+	 * Hilos de la evaluacin y del entrenamiento en paralelo, creados la
+	 * primera vez que hacen falta y reutilizados en las llamadas siguientes;
+	 * solo se crean de nuevo si se piden ms. Son daemon: una red que no se
+	 * cierra no impide que termine el programa.
+	 */
+	private ExecutorService pool(int size){
+		if(pool == null || poolSize < size){
+			if(pool != null)
+				pool.shutdown();
+			pool = Executors.newFixedThreadPool(size, task -> {
+				Thread thread = new Thread(task, "neuronalnetwork-worker");
+				thread.setDaemon(true);
+				return thread;
+			});
+			poolSize = size;
+		}
+		return pool;
+	}
 	
+	/**
+	 * Termina los hilos de la evaluacin y del entrenamiento en paralelo.
+	 * La red se puede seguir usando: los hilos se crean de nuevo si hacen
+	 * falta.
+	 */
+	@Override
+	public void close(){
+		if(pool != null){
+			pool.shutdown();
+			pool = null;
+		}
+	}
 	
+	private static void invokeAll(ExecutorService pool, List<Callable<Void>> tasks){
+		try{
+			for(Future<Void> future : pool.invokeAll(tasks)){
+				future.get();
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Training interrupted", e);
+		}catch(ExecutionException e){
+			throw new IllegalStateException("Training worker failed", e.getCause());
+		}
+	}
 	
+	private void adjustWeightsBatch(BatchWorkspace batch){
+		for(int l=0; l<layers.length; ++l){
+			adjustWeights(layers[l], batch.gradients[l]);
+		}
+	}
 	
+	private void adjustWeights(Layer layer, float[] gradient){
+		KERNELS.update(layer.weights, layer.weightError, gradient, learningRate, momentum);
+	}
 	
-	
-	
+	private void insertImage(Dataset data, int index){
+		data.normalize(index, inputInpArray, 0);
+	}
 	
 	/*
-	 * Mtodos de clculo de error en la capa intermedia de entrada
+	 * Activacin de la capa l. Con la salida softmax, la capa de salida
+	 * deja las sumas tal cual y normalizeOutput las convierte en
+	 * probabilidades.
 	 */
-	private void calculateOutputErrorINP(){
-		for(int i=0; i<numInputNeurons; ++i){
-			inputOutError[i] = 0f;
-			for(int j=0; j<numHiddenNeurons; ++j){
-				inputOutError[i] = inputOutError[i] + hiddenInpError[j] * hiddenWeightArray[j][i];
-			}
-		}
+	private Activation activation(int l){
+		return (softmaxOutput && l == layers.length - 1) ? Softmax.LOGITS : activation;
 	}
 	
-	private void calculateInputErrorINP(){
-		for(int i=0; i<numInputNeurons; ++i){
-			inputInpError[i] = inputOutArray[i] * (1.0f - inputOutArray[i]) * inputOutError[i];
+	private void normalizeOutput(){
+		if(softmaxOutput){
+			Layer output = layers[layers.length - 1];
+			Softmax.apply(output.out, 0, output.outputs);
 		}
 	}
 	
-	private void calculateWeightErrorINP(){
-		for(int i=0; i<numInputNeurons; ++i){
-			for(int j=0; j<IMAGESIZE; ++j){
-				for(int k=0; k<IMAGESIZE; ++k){
-					inputWeightError[i][j][k] = (inputInpError[i] * inputInpArray[i][j][k] * learningRate ) 
-							+ momentum * inputWeightError[i][j][k];
-				}
+	private int networkOutput(){
+		return argmax(layers[layers.length - 1].out, 0, numOutputNeurons);
+	}
+	
+	static int argmax(float[] values, int offset, int length){
+		float maximo = values[offset];
+		int output = 0;
+		for(int s=1; s<length; ++s){
+			if(values[offset + s] > maximo){
+				maximo = values[offset + s];
+				output = s;
 			}
 		}
+		return output;
 	}
 	
-	private void adjustWeightINP(){
-		float weightSum;
-		for(int i=0; i<numInputNeurons; ++i){
-			for(int j=0; j<IMAGESIZE; ++j){
-				for(int k=0; k<IMAGESIZE; ++k){
-					weightSum = inputWeightArray[i][j][k] + inputWeightError[i][j][k];
-					if(weightSum < 1f && weightSum > -1f){
-						inputWeightArray[i][j][k] += inputWeightError[i][j][k];
-					}
-				}
+	private void checkLabel(int output, int label){
+		if(output == label)
+			hits++;
+	}
+	
+	private void backpropagate(int label){
+		if(fusedBackpropagation){
+			backpropagateFused(label);
+			return;
+		}
+		layers[layers.length - 1].outputError(label);
+		for(int l=layers.length-1; l>=0; --l){
+			Layer layer = layers[l];
+			if(l < layers.length - 1)
+				layers[l + 1].propagate(layer.outError);
+			layer.inputError(activation(l));
+			if(l > 0){
+				layer.momentum(layers[l - 1].out, learningRate, momentum);
+			}else if(sparseInput){
+				layer.momentumSparse(inputInpArray, inputSegments, inputFrom, inputTo, learningRate, momentum);
+				layer.adjustSparse(inputSegments, inputFrom, inputTo);
+			}else{
+				layer.momentum(inputInpArray, learningRate, momentum);
+				layer.adjust();
 			}
+			lap(phase(l));
 		}
 		
+		for(int l=1; l<layers.length; ++l){
+			layers[l].adjust();
+			lap(phase(l));
+		}
+	}
+	
+	/*
+	 * Misma secuencia que backpropagate, pero cada capa se recorre una vez:
+	 * el error de la capa anterior se acumula con el peso antes de ajustarlo,
+	 * as que se propaga con los pesos previos a la actualizacin, como en
+	 * las pasadas separadas, y en el mismo orden de suma.
+	 */
+	private void backpropagateFused(int label){
+		layers[layers.length - 1].outputError(label);
+		for(int l=layers.length-1; l>=0; --l){
+			Layer layer = layers[l];
+			layer.inputError(activation(l));
+			if(l > 0){
+				layer.fused(layers[l - 1].out, layers[l - 1].outError, learningRate, momentum);
+			}else if(sparseInput){
+				layer.fusedSparse(inputInpArray, inputSegments, inputFrom, inputTo, learningRate, momentum);
+			}else{
+				layer.fused(inputInpArray, null, learningRate, momentum);
+			}
+			lap(phase(l));
+		}
 	}
 	
 	
@@ -412,29 +1150,36 @@ public class NeuralNetwork {
 	 * Mtodos para cargar o guardar los pesos.
 	 */
 	
+	/**
+	 * Guarda los pesos en el formato binario de {@link Checkpoint}.
+	 */
 	public void saveWeights(String filename) throws IOException{
+		new Checkpoint(sizes.clone(), weights()).write(filename);
+		log.info("Data Saved in " + filename);
+	}
+	
+	private void checkTopology(Checkpoint checkpoint, String filename) throws IOException{
+		int[] sizes = checkpoint.sizes;
+		if(sizes[0] != INPUTSIZE || sizes[sizes.length - 1] != numOutputNeurons)
+			throw new IOException("Unsupported network topology in " + filename);
+	}
+	
+	/**
+	 * Guarda los pesos en el formato de texto original, un valor por lnea.
+	 * Ese formato solo admite la topologa original, con dos capas antes de
+	 * la de salida.
+	 */
+	public void saveWeightsText(String filename) throws IOException{
+		if(layers.length != 3)
+			throw new IllegalStateException("The text format needs exactly 3 weight layers, not " + layers.length);
 		  BufferedWriter outputWriter = new BufferedWriter(new FileWriter(filename));
-		  outputWriter.write(Integer.toString(numInputNeurons));
+		  outputWriter.write(Integer.toString(sizes[1]));
 		  outputWriter.newLine();
-		  outputWriter.write(Integer.toString(numHiddenNeurons));
+		  outputWriter.write(Integer.toString(sizes[2]));
 		  outputWriter.newLine();
-		  for (int i = 0; i < inputWeightArray.length; i++) {
-			  for(int j=0; j< inputWeightArray[i].length; ++j){
-				  for(int k=0; k<inputWeightArray[i][j].length; ++k){
-					    outputWriter.write(Float.toString(inputWeightArray[i][j][k]));
-					    outputWriter.newLine();
-				  }
-			  }
-		  }
-		  for (int i = 0; i < hiddenWeightArray.length; i++) {
-			  for(int j=0; j< hiddenWeightArray[i].length; ++j){
-				  outputWriter.write(Float.toString(hiddenWeightArray[i][j]));
-				  outputWriter.newLine();
-			  }
-		  }
-		  for (int i = 0; i < outputWeightArray.length; i++) {
-			  for(int j=0; j< outputWeightArray[i].length; ++j){
-				  outputWriter.write(Float.toString(outputWeightArray[i][j]));
+		  for (Layer layer : layers) {
+			  for (int i = 0; i < layer.weights.length; i++) {
+				  outputWriter.write(Float.toString(layer.weights[i]));
 				  outputWriter.newLine();
 			  }
 		  }
@@ -443,34 +1188,64 @@ public class NeuralNetwork {
 		  log.info("Data Saved in " + filename);
 	}
 	
+	/**
+	 * Carga pesos en formato binario o en el formato de texto original.
+	 */
 	public void loadWeights(String filename) throws IOException{
+		if(Checkpoint.isCheckpoint(filename)){
+			Checkpoint checkpoint = Checkpoint.read(filename);
+			checkTopology(checkpoint, filename);
+			sizes = checkpoint.sizes;
+			initializeBuffers(checkpoint.weights);
+			log.info("Data Readed");
+			return;
+		}
 		  BufferedReader inputReader = new BufferedReader(new FileReader(filename));
-		  numInputNeurons = Integer.parseInt(inputReader.readLine());
-		  numHiddenNeurons = Integer.parseInt(inputReader.readLine());
-		  initializeArrays();
-		  for (int i = 0; i < inputWeightArray.length; i++) {
-			  for(int j=0; j< inputWeightArray[i].length; ++j){
-				  for(int k=0; k<inputWeightArray[i][j].length; ++k){
-					  inputWeightArray[i][j][k] = Float.parseFloat(inputReader.readLine());// .write(Float.toString(inputWeightArray[i][j][k]));
-				  }
+		  int numInputNeurons = Integer.parseInt(inputReader.readLine());
+		  int numHiddenNeurons = Integer.parseInt(inputReader.readLine());
+		  sizes = new int[] { INPUTSIZE, numInputNeurons, numHiddenNeurons, numOutputNeurons };
+		  initializeBuffers(emptyWeights());
+		  for (Layer layer : layers) {
+			  for (int i = 0; i < layer.weights.length; i++) {
+				  layer.weights[i] = Float.parseFloat(inputReader.readLine());
 			  }
 		  }
-		  for (int i = 0; i < hiddenWeightArray.length; i++) {
-			  for(int j=0; j< hiddenWeightArray[i].length; ++j){
-				  hiddenWeightArray[i][j] = Float.parseFloat(inputReader.readLine());//outputWriter.write(Float.toString(outputWeightArray[i][j]));
-			  }
-		  } 
-		  for (int i = 0; i < outputWeightArray.length; i++) {
-			  for(int j=0; j< outputWeightArray[i].length; ++j){
-				  outputWeightArray[i][j] = Float.parseFloat(inputReader.readLine());//outputWriter.write(Float.toString(outputWeightArray[i][j]));
-			  }
-		  }  
 		  inputReader.close(); 
 		  log.info("Data Readed");
 	}
 	
+	/**
+	 * Modelo inmutable para inferencia con una copia de los pesos actuales
+	 * y la misma funcin de activacin. Puede clasificar desde varios
+	 * hilos a la vez mientras esta red sigue entrenando.
+	 */
+	public Model toModel(){
+		NeuralNetwork current = (step > 0) ? snapshot() : this;
+		return new Model(sizes, current.weights(), activation);
+	}
+	
+	/**
+	 * Predicciones de la ltima evaluacin, una cifra por imagen.
+	 */
 	public String getLabels(){
-		return resultLabels;
+		char[] labels = new char[numPredictions];
+		for(int i=0; i<numPredictions; ++i){
+			labels[i] = (char) ('0' + predictions[i]);
+		}
+		return new String(labels);
+	}
+	
+	/**
+	 * Matriz de confusin de la ltima evaluacin: [etiqueta][prediccin].
+	 */
+	public int[][] getConfusionMatrix(){
+		int[][] matrix = new int[numOutputNeurons][numOutputNeurons];
+		if(confusion != null){
+			for(int i=0; i<numOutputNeurons; ++i){
+				System.arraycopy(confusion, i * numOutputNeurons, matrix[i], 0, numOutputNeurons);
+			}
+		}
+		return matrix;
 	}
 	
 	
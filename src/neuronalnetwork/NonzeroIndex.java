@@ -0,0 +1,101 @@
+package neuronalnetwork;
+
+import java.util.Arrays;
+
+/**
+ * Nonzero pixels of every image of a {@link Dataset}, in compressed sparse
+ * row form.
+ *
+ * Each image is stored as a list of pixel segments [start, end) that cover
+ * all its nonzero pixels, in ascending order. Nonzero runs separated by
+ * fewer than MAX_GAP zero pixels are merged, so the kernels work on
+ * contiguous stretches instead of single pixels. Segment s of image i is
+ * [segments[2*s], segments[2*s+1]), for s in [offsets[i], offsets[i+1]).
+ */
+final class NonzeroIndex
+{
+	private static final int MAX_GAP = 8;
+
+	final int[] offsets;
+	final int[] segments;
+	private final long nonzeros;
+	private final long covered;
+
+	private NonzeroIndex (int[] offsets, int[] segments, long nonzeros, long covered)
+	{
+		this.offsets = offsets;
+		this.segments = segments;
+		this.nonzeros = nonzeros;
+		this.covered = covered;
+	}
+
+	static NonzeroIndex of (Dataset data)
+	{
+		int size = data.size();
+		int imageSize = data.imageSize();
+		float[] image = new float[imageSize];
+		int[] offsets = new int[size + 1];
+		int[] segments = new int[(int) Math.max(64, Math.min(Integer.MAX_VALUE - 8, (long) size * 64))];
+		int count = 0;
+		long nonzeros = 0;
+		long covered = 0;
+		for (int i=0; i<size; i++) {
+			data.normalize(i, image, 0);
+			if (segments.length - count < imageSize + 1)
+				segments = Arrays.copyOf(segments, (int) Math.min(Integer.MAX_VALUE - 8,
+						Math.max((long) segments.length * 2, (long) count + imageSize + 1)));
+			int start = -1;
+			int last = -1;
+			for (int k=0; k<imageSize; k++) {
+				if (image[k] == 0f)
+					continue;
+				nonzeros++;
+				if (start < 0 || k - last > MAX_GAP) {
+					if (start >= 0) {
+						segments[count++] = start;
+						segments[count++] = last + 1;
+						covered += last + 1 - start;
+					}
+					start = k;
+				}
+				last = k;
+			}
+			if (start >= 0) {
+				segments[count++] = start;
+				segments[count++] = last + 1;
+				covered += last + 1 - start;
+			}
+			offsets[i + 1] = count / 2;
+		}
+		return new NonzeroIndex(offsets, Arrays.copyOf(segments, count), nonzeros, covered);
+	}
+
+	int start (int index)
+	{
+		return offsets[index];
+	}
+
+	int end (int index)
+	{
+		return offsets[index + 1];
+	}
+
+	/**
+	 * Fraction of pixels that are not zero.
+	 */
+	double density (int imageSize)
+	{
+		int size = offsets.length - 1;
+		return (size == 0) ? 0 : (double) nonzeros / ((long) size * imageSize);
+	}
+
+	/**
+	 * Fraction of pixels inside the segments, the ones the sparse input
+	 * layer actually reads.
+	 */
+	double coverage (int imageSize)
+	{
+		int size = offsets.length - 1;
+		return (size == 0) ? 0 : (double) covered / ((long) size * imageSize);
+	}
+}
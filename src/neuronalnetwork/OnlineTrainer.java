@@ -0,0 +1,252 @@
+package neuronalnetwork;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * Fine-tunes a trained network with new labelled samples as they arrive
+ * and publishes each update as a new {@link Model}.
+ *
+ * New samples are trained one at a time through the same per-sample
+ * backpropagation as {@link NeuralNetwork#trainNetwork(Dataset, Dataset)},
+ * in updates of at most {@link #setUpdateSize(int)} new samples. Each new
+ * sample is followed by {@link #setReplayRatio(int)} older samples drawn
+ * from a replay reservoir, so the network keeps seeing what it learnt
+ * before. The reservoir is a uniform sample of every sample learnt or
+ * remembered so far, of fixed capacity (reservoir sampling), and holds the
+ * normalized images, capacity x image size floats.
+ *
+ * After every update the weights are copied into a new immutable model and
+ * published with a single reference swap, so {@link #model()} always
+ * returns a complete model, from any thread and without locking.
+ *
+ * {@link #watch(String, long)} polls a directory for pairs of IDX files,
+ * NAME-images-idx3-ubyte[.gz] and NAME-labels-idx1-ubyte[.gz], and learns
+ * each new pair once, in name order. A pair that cannot be read yet is
+ * retried at the next poll, but files should be moved into the directory
+ * once complete.
+ */
+public final class OnlineTrainer implements AutoCloseable {
+	protected static final Logger log = Logger.getLogger(OnlineTrainer.class.getName());
+	private static final String IMAGES = "-images-idx3-ubyte";
+	private static final String LABELS = "-labels-idx1-ubyte";
+
+	private final NeuralNetwork network;
+	private final int imageSize;
+	private final float[] reservoir;
+	private final int[] reservoirLabels;
+	private final int capacity;
+	private final SplitMix64 random = new SplitMix64(0x5DEECE66DL);
+	private final AtomicReference<Model> model;
+	private final float[] image;
+	private long seen;
+	private int replayRatio = 1;
+	private int updateSize = 256;
+	private long updates;
+	private final Set<String> learnt = new HashSet<>();
+	private ScheduledExecutorService watcher;
+	private ScheduledFuture<?> polling;
+
+	/**
+	 * @param network Trained network, owned by the trainer from now on
+	 * @param capacity Samples kept for replay
+	 */
+	public OnlineTrainer(NeuralNetwork network, int capacity){
+		if(capacity < 0)
+			throw new IllegalArgumentException("Invalid reservoir capacity " + capacity);
+		this.network = network;
+		this.capacity = capacity;
+		imageSize = network.getLayerSizes()[0];
+		reservoir = new float[capacity * imageSize];
+		reservoirLabels = new int[capacity];
+		image = new float[imageSize];
+		model = new AtomicReference<>(network.toModel());
+	}
+
+	/**
+	 * Older samples replayed after each new one (1 by default).
+	 */
+	public synchronized void setReplayRatio(int replayRatio){
+		if(replayRatio < 0)
+			throw new IllegalArgumentException("Invalid replay ratio " + replayRatio);
+		this.replayRatio = replayRatio;
+	}
+
+	/**
+	 * New samples per published update (256 by default). Smaller updates
+	 * publish sooner after the samples arrive.
+	 */
+	public synchronized void setUpdateSize(int updateSize){
+		if(updateSize < 1)
+			throw new IllegalArgumentException("Invalid update size " + updateSize);
+		this.updateSize = updateSize;
+	}
+
+	/**
+	 * Latest published model.
+	 */
+	public Model model(){
+		return model.get();
+	}
+
+	/**
+	 * Number of updates published so far.
+	 */
+	public synchronized long updates(){
+		return updates;
+	}
+
+	/**
+	 * Add samples to the replay reservoir without training on them, e.g. a
+	 * sample of the original training set.
+	 */
+	public synchronized void remember(Dataset data){
+		for(int i=0; i<data.size(); ++i){
+			data.normalize(i, image, 0);
+			keep(image, 0, data.label(i));
+		}
+	}
+
+	/**
+	 * Train on new samples, with replay, publishing a model after every
+	 * update.
+	 *
+	 * @return Samples the network already classified right before training
+	 *         on them
+	 */
+	public synchronized int learn(Dataset data){
+		if(data.imageSize() != imageSize)
+			throw new IllegalArgumentException("Images of " + data.imageSize() + " pixels, expected " + imageSize);
+		int hits = 0;
+		for(int start=0; start<data.size(); start+=updateSize){
+			int count = Math.min(updateSize, data.size() - start);
+			// Nothing to replay until the reservoir holds a sample
+			int replay = (Math.min(seen, capacity) == 0) ? 0 : replayRatio;
+			int total = count * (1 + replay);
+			float[] pixels = new float[total * imageSize];
+			int[] labels = new int[total];
+			int n = 0;
+			for(int i=start; i<start + count; ++i){
+				data.normalize(i, pixels, n * imageSize);
+				labels[n++] = data.label(i);
+				for(int r=0; r<replay; ++r){
+					int slot = random.nextInt((int) Math.min(seen, capacity));
+					System.arraycopy(reservoir, slot * imageSize, pixels, n * imageSize, imageSize);
+					labels[n++] = reservoirLabels[slot];
+				}
+			}
+
+			Dataset update = Dataset.of(pixels, labels, imageSize);
+			for(int i=0; i<total; ++i){
+				if(network.trainOnline(update, i) && i % (1 + replay) == 0)
+					hits++;
+			}
+			for(int i=0; i<total; i+=1+replay){
+				keep(pixels, i * imageSize, labels[i]);
+			}
+			model.set(network.toModel());
+			updates++;
+		}
+		return hits;
+	}
+
+	/**
+	 * Poll a directory for new pairs of IDX files every so many
+	 * milliseconds, on a background thread, and learn them.
+	 */
+	public synchronized void watch(String directory, long pollMillis){
+		if(watcher != null)
+			throw new IllegalStateException("Already watching a directory");
+		File dir = new File(directory);
+		if(!dir.isDirectory())
+			throw new IllegalArgumentException("Not a directory: " + directory);
+		watcher = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "neuronalnetwork-online");
+			thread.setDaemon(true);
+			return thread;
+		});
+		polling = watcher.scheduleWithFixedDelay(() -> poll(dir), 0, pollMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop watching, after the files being learnt if any. A failure of the
+	 * background thread is thrown here.
+	 */
+	@Override
+	public void close(){
+		ScheduledExecutorService watcher;
+		ScheduledFuture<?> polling;
+		synchronized(this){
+			watcher = this.watcher;
+			polling = this.polling;
+			this.watcher = null;
+		}
+		if(watcher == null)
+			return;
+		watcher.shutdown();
+		try{
+			watcher.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			// A periodic task only completes by failing or being cancelled
+			if(!polling.isCancelled())
+				polling.get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Online training interrupted", e);
+		}catch(ExecutionException e){
+			throw new IllegalStateException("Online training failed", e.getCause());
+		}
+	}
+
+	private void poll(File dir){
+		String[] names = dir.list((parent, name) -> name.contains(IMAGES));
+		if(names == null)
+			return;
+		Arrays.sort(names);
+		for(String name : names){
+			if(learnt.contains(name))
+				continue;
+			File labels = new File(dir, name.replace(IMAGES, LABELS));
+			if(!labels.exists())
+				continue;
+			Dataset data;
+			try{
+				data = MNISTDatabase.readDataset(new File(dir, name).getPath(), labels.getPath());
+			}catch(IOException | IllegalArgumentException e){
+				log.warning("Skipping " + name + " until next poll: " + e.getMessage());
+				continue;
+			}
+			int hits = learn(data);
+			learnt.add(name);
+			log.info("Learnt " + data.size() + " samples from " + name + ", " + hits + " already right");
+		}
+	}
+
+	/*
+	 * Reservoir sampling: the n-th sample replaces a random slot with
+	 * probability capacity / n.
+	 */
+	private void keep(float[] pixels, int offset, int label){
+		seen++;
+		int slot;
+		if(seen <= capacity){
+			slot = (int) seen - 1;
+		}else{
+			long r = Long.remainderUnsigned(random.nextLong(), seen);
+			if(r >= capacity)
+				return;
+			slot = (int) r;
+		}
+		System.arraycopy(pixels, offset, reservoir, slot * imageSize, imageSize);
+		reservoirLabels[slot] = label;
+	}
+}
@@ -0,0 +1,184 @@
+package neuronalnetwork;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Classifies the images of an unlabelled IDX file with a trained model on
+ * all cores and writes one predicted class per line, in the order of the
+ * images.
+ *
+ * The calling thread reads the file in blocks of images while a pool with
+ * one worker per core normalizes and classifies the blocks already read,
+ * all through the same model. At most two blocks per worker are in
+ * flight, so memory does not grow with the size of the file.
+ *
+ * The weights can also be a {@link QuantizedModel}, which reads the raw
+ * pixels without normalizing them.
+ *
+ * Usage: Predict weights images.idx[.gz] [output]
+ */
+public class Predict
+{
+	private static final int BLOCK = 4096;
+
+	/*
+	 * Classes of a block of raw images, safe to call from every worker.
+	 */
+	private interface Classifier
+	{
+		int inputSize ();
+
+		byte[] classify (byte[] pixels, int count);
+	}
+
+	public static void main (String[] args) throws IOException
+	{
+		if (args.length < 2) {
+			System.err.println("Uso: Predict pesos imagenes.idx[.gz] [salida]");
+			System.exit(2);
+		}
+		Classifier model = QuantizedModel.isQuantized(args[0]) ? quantized(QuantizedModel.read(args[0]))
+				: floating(Model.load(args[0]));
+		OutputStream out = (args.length > 2) ? new FileOutputStream(args[2]) : System.out;
+		long start = System.nanoTime();
+		int count;
+		try (OutputStream buffered = new BufferedOutputStream(out, 1 << 16)) {
+			count = predict(model, args[1], buffered);
+		}
+		long nanos = System.nanoTime() - start;
+		System.err.println(String.format(Locale.US, "%d imagenes clasificadas en %.2f s (%.0f imagenes/s)",
+				count, nanos / 1e9, count * 1e9 / Math.max(1, nanos)));
+	}
+
+	/**
+	 * Classify every image of an IDX file and write the classes, one per
+	 * line.
+	 *
+	 * @return Number of images
+	 */
+	static int predict (Classifier model, String filename, OutputStream out) throws IOException
+	{
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+		try (MNISTDatabase.IDXReader data = new MNISTDatabase.IDXReader(filename, MNISTDatabase.IMAGES_MAGIC)) {
+			int imageSize = data.dimension(1) * data.dimension(2);
+			if (imageSize != model.inputSize())
+				throw new IOException("Images of "+imageSize+" pixels in "+filename+", expected "+model.inputSize());
+
+			int count = 0;
+			byte[] block = new byte[BLOCK * imageSize];
+			int filled = 0;
+			while (data.fill()) {
+				ByteBuffer chunk = data.chunk();
+				while (chunk.hasRemaining()) {
+					int length = Math.min(chunk.remaining(), block.length - filled);
+					chunk.get(block, filled, length);
+					filled += length;
+					if (filled == block.length) {
+						submit(pool, pending, model, block, BLOCK);
+						count += BLOCK;
+						block = new byte[BLOCK * imageSize];
+						filled = 0;
+						if (pending.size() >= 2 * threads)
+							write(pending.poll(), out);
+					}
+				}
+			}
+			if (filled > 0) {
+				submit(pool, pending, model, block, filled / imageSize);
+				count += filled / imageSize;
+			}
+			while (!pending.isEmpty())
+				write(pending.poll(), out);
+			return count;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static void submit (ExecutorService pool, ArrayDeque<Future<byte[]>> pending,
+			Classifier model, byte[] pixels, int count)
+	{
+		pending.add(pool.submit(() -> model.classify(pixels, count)));
+	}
+
+	private static Classifier floating (Model model)
+	{
+		return new Classifier() {
+			public int inputSize ()
+			{
+				return model.getInputSize();
+			}
+
+			public byte[] classify (byte[] pixels, int count)
+			{
+				return Predict.classify(model, pixels, count, model.getInputSize());
+			}
+		};
+	}
+
+	private static Classifier quantized (QuantizedModel model)
+	{
+		return new Classifier() {
+			public int inputSize ()
+			{
+				return model.getInputSize();
+			}
+
+			public byte[] classify (byte[] pixels, int count)
+			{
+				int[] predictions = new int[count];
+				model.predictBatch(pixels, count, predictions);
+				byte[] classes = new byte[count];
+				for (int b=0; b<count; b++)
+					classes[b] = (byte) predictions[b];
+				return classes;
+			}
+		};
+	}
+
+	private static byte[] classify (Model model, byte[] pixels, int count, int imageSize)
+	{
+		float[] batch = new float[Model.BATCH * imageSize];
+		int[] predictions = new int[Model.BATCH];
+		byte[] classes = new byte[count];
+		for (int start=0; start<count; start+=Model.BATCH) {
+			int rows = Math.min(Model.BATCH, count - start);
+			int offset = start * imageSize;
+			for (int k=0; k<rows * imageSize; k++)
+				batch[k] = (pixels[offset + k] & 0xFF) / 255f;
+			model.predictBatch(batch, rows, predictions);
+			for (int b=0; b<rows; b++)
+				classes[start + b] = (byte) predictions[b];
+		}
+		return classes;
+	}
+
+	private static void write (Future<byte[]> result, OutputStream out) throws IOException
+	{
+		byte[] classes;
+		try {
+			classes = result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Prediction interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Prediction failed", e.getCause());
+		}
+		for (byte c : classes) {
+			out.write(Integer.toString(c & 0xFF).getBytes());
+			out.write('\n');
+		}
+	}
+}
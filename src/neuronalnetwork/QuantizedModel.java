@@ -0,0 +1,307 @@
+package neuronalnetwork;
+
+import static neuronalnetwork.Kernels.KERNELS;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Inference model with an int8 input layer.
+ *
+ * The input layer holds most of the weights. Each of its neurons is
+ * quantized symmetrically on its own: q = round(w / scale) in [-127, 127]
+ * with scale = max |w| / 127. Images are read as the raw uint8 pixels,
+ * the products are summed in an int, which cannot overflow (784 * 127 *
+ * 255 is below 2^25), and the sum is rescaled once by scale / 255. The
+ * following layers are small and stay in float. As in {@link Model}, the
+ * class is the largest weighted sum of the output layer.
+ *
+ * The int8 weights are kept transposed, one column of neuron weights per
+ * pixel, so a prediction only walks the columns of the nonzero pixels.
+ *
+ * Like {@link Model} it is immutable, one instance can serve any number of
+ * threads and predictions allocate nothing after a thread's first call.
+ *
+ * File layout, little-endian, as {@link Checkpoint} with its own magic:
+ * <pre>
+ *   int    magic ("NNWQ")
+ *   int    version
+ *   int    flags (reserved, 0)
+ *   int    number of weight layers L
+ *   int[]  L+1 layer sizes, input size first
+ *   long   CRC32 of the payload
+ *   float  scale of every input neuron
+ *   byte   input weights, neurons x pixels, row-major
+ *   float  weights of the following layers, row-major
+ * </pre>
+ */
+public final class QuantizedModel {
+	static final int MAGIC = 0x51574E4E; // "NNWQ" read as little-endian
+	static final int VERSION = 1;
+
+	private final int[] sizes;
+	private final int inputSize;
+	private final int numInput;
+	private final int numOutput;
+	private final byte[] columns;
+	private final float[] scales;
+	private final float[] rescale;
+	/** Float weights of the layers after the first, layer l + 1 at index l. */
+	private final float[][] weights;
+	private final Activation activation;
+	private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(this::newScratch);
+
+	private static final class Scratch {
+		final int[] sums;
+		final float[][] out;
+
+		Scratch(int[] sizes){
+			sums = new int[sizes[1]];
+			out = new float[sizes.length - 1][];
+			for(int l=0; l<out.length; ++l){
+				out[l] = new float[sizes[l + 1]];
+			}
+		}
+	}
+
+	/**
+	 * @param weights Input weights quantized, neurons x pixels, row-major
+	 * @param scales Scale of every input neuron
+	 * @param following Float weights of the other layers
+	 */
+	private QuantizedModel(int[] sizes, byte[] weights, float[] scales, float[][] following, Activation activation){
+		this.sizes = sizes;
+		inputSize = sizes[0];
+		numInput = sizes[1];
+		numOutput = sizes[sizes.length - 1];
+		columns = new byte[weights.length];
+		for(int i=0; i<numInput; ++i){
+			for(int k=0; k<inputSize; ++k){
+				columns[k * numInput + i] = weights[i * inputSize + k];
+			}
+		}
+		this.scales = scales;
+		rescale = new float[numInput];
+		for(int i=0; i<numInput; ++i){
+			rescale[i] = scales[i] / 255f;
+		}
+		this.weights = following;
+		this.activation = activation;
+	}
+
+	/**
+	 * Quantize the input layer of a network given by its layer sizes and
+	 * row-major weights. The weights are not modified.
+	 */
+	static QuantizedModel quantize(int[] sizes, float[][] weights, Activation activation){
+		int inputSize = sizes[0];
+		int numInput = sizes[1];
+		byte[] quantized = new byte[numInput * inputSize];
+		float[] scales = new float[numInput];
+		for(int i=0; i<numInput; ++i){
+			int row = i * inputSize;
+			float max = 0f;
+			for(int k=0; k<inputSize; ++k){
+				max = Math.max(max, Math.abs(weights[0][row + k]));
+			}
+			scales[i] = max / 127f;
+			if(max == 0f)
+				continue;
+			for(int k=0; k<inputSize; ++k){
+				quantized[row + k] = (byte) Math.max(-127, Math.min(127, Math.round(weights[0][row + k] / scales[i])));
+			}
+		}
+		float[][] following = new float[weights.length - 1][];
+		for(int l=0; l<following.length; ++l){
+			following[l] = weights[l + 1].clone();
+		}
+		return new QuantizedModel(sizes.clone(), quantized, scales, following, activation);
+	}
+
+	/** Pixels per image. */
+	public int getInputSize(){
+		return inputSize;
+	}
+
+	/** Number of classes. */
+	public int getOutputSize(){
+		return numOutput;
+	}
+
+	/**
+	 * Class of the raw uint8 image at pixels[offset, offset + inputSize).
+	 */
+	public int predict(byte[] pixels, int offset){
+		if(offset < 0 || offset > pixels.length - inputSize)
+			throw new IllegalArgumentException("No image at offset " + offset);
+		Scratch s = scratch.get();
+		int[] sums = s.sums;
+		Arrays.fill(sums, 0);
+		for(int k=0; k<inputSize; ++k){
+			int pixel = pixels[offset + k] & 0xFF;
+			if(pixel == 0)
+				continue;
+			KERNELS.accumulate(columns, k * numInput, pixel, sums, numInput);
+		}
+		float[] in = s.out[0];
+		for(int i=0; i<numInput; ++i){
+			in[i] = sums[i] * rescale[i];
+		}
+		if(weights.length > 0)
+			activation.apply(in, in, numInput);
+		for(int l=0; l<weights.length; ++l){
+			int inputs = sizes[l + 1];
+			float[] out = s.out[l + 1];
+			for(int i=0; i<out.length; ++i){
+				out[i] = KERNELS.dot(weights[l], i * inputs, in, 0, inputs);
+			}
+			if(l < weights.length - 1)
+				activation.apply(out, out, out.length);
+			in = out;
+		}
+		return NeuralNetwork.argmax(in, 0, numOutput);
+	}
+
+	/**
+	 * Classes of count raw uint8 images stored one after another.
+	 *
+	 * @param predictions Receives the class of image i at index i
+	 */
+	public void predictBatch(byte[] pixels, int count, int[] predictions){
+		if(count < 0 || (long) count * inputSize > pixels.length || count > predictions.length)
+			throw new IllegalArgumentException("Invalid batch of " + count + " images");
+		for(int b=0; b<count; ++b){
+			predictions[b] = predict(pixels, b * inputSize);
+		}
+	}
+
+	/**
+	 * Size in bytes of the weights and scales.
+	 */
+	public long weightBytes(){
+		long floats = scales.length;
+		for(float[] layer : weights){
+			floats += layer.length;
+		}
+		return columns.length + floats * Float.BYTES;
+	}
+
+	/**
+	 * Save the model in the layout described above.
+	 */
+	public void write(String filename) throws IOException {
+		ByteBuffer payload = ByteBuffer.allocateDirect((int) weightBytes()).order(ByteOrder.LITTLE_ENDIAN);
+		for(float scale : scales){
+			payload.putFloat(scale);
+		}
+		for(int i=0; i<numInput; ++i){
+			for(int k=0; k<inputSize; ++k){
+				payload.put(columns[k * numInput + i]);
+			}
+		}
+		for(float[] layer : weights){
+			for(float w : layer){
+				payload.putFloat(w);
+			}
+		}
+		payload.flip();
+		CRC32 crc = new CRC32();
+		crc.update(payload.duplicate());
+
+		ByteBuffer header = ByteBuffer.allocate(4 * Integer.BYTES + sizes.length * Integer.BYTES + Long.BYTES)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putInt(0).putInt(sizes.length - 1);
+		for(int size : sizes){
+			header.putInt(size);
+		}
+		header.putLong(crc.getValue());
+		header.flip();
+
+		Path path = Paths.get(filename);
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+			ByteBuffer[] buffers = { header, payload };
+			while(payload.hasRemaining()){
+				channel.write(buffers);
+			}
+		}
+	}
+
+	/**
+	 * Read a model written by {@link #write(String)}, with the default
+	 * activation.
+	 */
+	public static QuantizedModel read(String filename) throws IOException {
+		try(FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)){
+			MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			map.order(ByteOrder.LITTLE_ENDIAN);
+
+			if(map.remaining() < 16 || map.getInt() != MAGIC)
+				throw new IOException("Not a quantized model: " + filename);
+			int version = map.getInt();
+			if(version != VERSION)
+				throw new IOException("Unsupported quantized model version " + version + " in " + filename);
+			map.getInt(); // flags
+			int layers = map.getInt();
+			if(layers < 1 || map.remaining() < (layers + 1L) * Integer.BYTES + Long.BYTES)
+				throw new IOException("Corrupt quantized model header in " + filename);
+
+			int[] sizes = new int[layers + 1];
+			for(int l=0; l<=layers; ++l){
+				sizes[l] = map.getInt();
+				if(sizes[l] < 1)
+					throw new IOException("Corrupt quantized model header in " + filename);
+			}
+			long checksum = map.getLong();
+			long length = (long) sizes[1] * Float.BYTES + (long) sizes[0] * sizes[1];
+			for(int l=1; l<layers; ++l){
+				length += (long) sizes[l] * sizes[l + 1] * Float.BYTES;
+			}
+			if(map.remaining() != length)
+				throw new IOException("Truncated quantized model " + filename);
+
+			CRC32 crc = new CRC32();
+			crc.update(map.duplicate());
+			if(crc.getValue() != checksum)
+				throw new IOException("Checksum mismatch in " + filename);
+
+			float[] scales = new float[sizes[1]];
+			byte[] weights = new byte[sizes[0] * sizes[1]];
+			for(int i=0; i<scales.length; ++i){
+				scales[i] = map.getFloat();
+			}
+			map.get(weights);
+			float[][] following = new float[layers - 1][];
+			for(int l=0; l<following.length; ++l){
+				following[l] = new float[sizes[l + 1] * sizes[l + 2]];
+				for(int i=0; i<following[l].length; ++i){
+					following[l][i] = map.getFloat();
+				}
+			}
+			return new QuantizedModel(sizes, weights, scales, following, Activation.SIGMOID);
+		}
+	}
+
+	private Scratch newScratch(){
+		return new Scratch(sizes);
+	}
+
+	/**
+	 * Check whether a file starts with the quantized model magic number.
+	 */
+	public static boolean isQuantized(String filename) throws IOException {
+		try(FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)){
+			ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			while(magic.hasRemaining() && channel.read(magic) >= 0);
+			return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package neuronalnetwork;
+
+/**
+ * Plain Java loops, in the same evaluation order as the original code.
+ */
+final class ScalarKernels extends Kernels {
+
+	@Override
+	float dot(float[] a, int aOffset, float[] b, int bOffset, int length){
+		float sum = 0f;
+		for(int k=0; k<length; ++k){
+			sum += a[aOffset + k] * b[bOffset + k];
+		}
+		return sum;
+	}
+
+	@Override
+	float dot(short[] a, int aOffset, float[] b, int bOffset, int length){
+		float sum = 0f;
+		for(int k=0; k<length; ++k){
+			sum += Bfloat16.toFloat(a[aOffset + k]) * b[bOffset + k];
+		}
+		return sum;
+	}
+
+	@Override
+	void dot4(float[] a, int aOffset, float[] b, int bOffset, int bStride, int length,
+			float[] out, int outOffset, int outStride){
+		int b1 = bOffset + bStride;
+		int b2 = b1 + bStride;
+		int b3 = b2 + bStride;
+		float sum0 = 0f, sum1 = 0f, sum2 = 0f, sum3 = 0f;
+		for(int k=0; k<length; ++k){
+			float x = a[aOffset + k];
+			sum0 += x * b[bOffset + k];
+			sum1 += x * b[b1 + k];
+			sum2 += x * b[b2 + k];
+			sum3 += x * b[b3 + k];
+		}
+		out[outOffset] = sum0;
+		out[outOffset + outStride] = sum1;
+		out[outOffset + 2 * outStride] = sum2;
+		out[outOffset + 3 * outStride] = sum3;
+	}
+
+	@Override
+	void accumulate(byte[] weights, int offset, int factor, int[] sums, int length){
+		for(int k=0; k<length; ++k){
+			sums[k] += weights[offset + k] * factor;
+		}
+	}
+
+	@Override
+	void momentum(float[] error, int errorOffset, float[] in, int inOffset, int length,
+			float delta, float learningRate, float momentum){
+		for(int k=0; k<length; ++k){
+			error[errorOffset + k] = (delta * in[inOffset + k] * learningRate) 
+					+ momentum * error[errorOffset + k];
+		}
+	}
+
+	@Override
+	void update(float[] weights, float[] error, float[] gradient, float learningRate, float momentum){
+		float weightSum;
+		for(int i=0; i<weights.length; ++i){
+			error[i] = (gradient[i] * learningRate) + momentum * error[i];
+			weightSum = weights[i] + error[i];
+			if(weightSum < 1f && weightSum > -1f){
+				weights[i] = weightSum;
+			}
+		}
+	}
+
+	@Override
+	void adjust(float[] weights, float[] error, int offset, int length){
+		float weightSum;
+		for(int i=offset; i<offset + length; ++i){
+			weightSum = weights[i] + error[i];
+			if(weightSum < 1f && weightSum > -1f){
+				weights[i] = weightSum;
+			}
+		}
+	}
+
+	@Override
+	void fused(float[] weights, float[] error, int offset, float[] in, int inOffset, int length,
+			float delta, float learningRate, float momentum, float[] back, int backOffset){
+		float weightSum;
+		for(int k=0; k<length; ++k){
+			int i = offset + k;
+			if(back != null){
+				back[backOffset + k] = back[backOffset + k] + delta * weights[i];
+			}
+			error[i] = (delta * in[inOffset + k] * learningRate) + momentum * error[i];
+			weightSum = weights[i] + error[i];
+			if(weightSum < 1f && weightSum > -1f){
+				weights[i] = weightSum;
+			}
+		}
+	}
+
+	@Override
+	String name(){
+		return "scalar";
+	}
+}
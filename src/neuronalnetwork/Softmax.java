@@ -0,0 +1,71 @@
+package neuronalnetwork;
+
+/**
+ * Softmax output layer trained with cross-entropy.
+ *
+ * The output neurons compute their weighted sums with {@link #LOGITS}, the
+ * identity, and {@link #apply} turns them into probabilities. The gradient
+ * of the cross-entropy with respect to the sums is the output minus the
+ * one-hot target, so with the derivative of LOGITS, 1, the usual output
+ * error (target - output) is already the error of the sums: there is no
+ * sigmoid derivative to slow the learning of saturated outputs.
+ *
+ * With 10 classes a row is shorter than one vector of the kernels, so this
+ * stays a plain loop; the exponentials are a negligible part of a sample.
+ */
+final class Softmax {
+	/**
+	 * Identity activation of the logits, derivative 1.
+	 */
+	static final Activation LOGITS = new Activation() {
+		@Override
+		public float apply(float value){
+			return value;
+		}
+
+		@Override
+		public void apply(float[] in, float[] out, int length){
+			if(in != out)
+				System.arraycopy(in, 0, out, 0, length);
+		}
+
+		@Override
+		public float derivative(float output){
+			return 1f;
+		}
+	};
+
+	private Softmax(){
+	}
+
+	/**
+	 * Replace values[offset, offset + length) by their softmax. The largest
+	 * value is subtracted first, log-sum-exp style, so the exponentials
+	 * cannot overflow and at least one of them is 1.
+	 */
+	static void apply(float[] values, int offset, int length){
+		float max = values[offset];
+		for(int k=1; k<length; ++k){
+			max = Math.max(max, values[offset + k]);
+		}
+		float sum = 0f;
+		for(int k=0; k<length; ++k){
+			float e = (float) Math.exp(values[offset + k] - max);
+			values[offset + k] = e;
+			sum += e;
+		}
+		float scale = 1f / sum;
+		for(int k=0; k<length; ++k){
+			values[offset + k] *= scale;
+		}
+	}
+
+	/**
+	 * Softmax of every row of a batch.
+	 */
+	static void applyRows(float[] values, int rows, int length){
+		for(int b=0; b<rows; ++b){
+			apply(values, b * length, length);
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package neuronalnetwork;
+
+/**
+ * Small seedable random generator (SplitMix64) whose whole state is one
+ * long, so it can be saved with a checkpoint and restored to continue the
+ * same sequence.
+ */
+final class SplitMix64 {
+	private long state;
+
+	SplitMix64(long seed){
+		state = seed;
+	}
+
+	long state(){
+		return state;
+	}
+
+	void setState(long state){
+		this.state = state;
+	}
+
+	long nextLong(){
+		long z = (state += 0x9E3779B97F4A7C15L);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Uniform value in [0, 1) from the top 24 bits, like
+	 * java.util.Random.nextFloat().
+	 */
+	float nextFloat(){
+		return (nextLong() >>> 40) * 0x1.0p-24f;
+	}
+
+	/**
+	 * Uniform value in [0, bound), without modulo bias.
+	 */
+	int nextInt(int bound){
+		if(bound <= 0)
+			throw new IllegalArgumentException("Invalid bound " + bound);
+		int r = (int) (nextLong() >>> 33);
+		int m = bound - 1;
+		if((bound & m) == 0)
+			return (int) ((bound * (long) r) >> 31);
+		for(int u = r; u - (r = u % bound) + m < 0; u = (int) (nextLong() >>> 33));
+		return r;
+	}
+
+	/**
+	 * Fill values with a uniformly shuffled permutation of [0, values.length).
+	 */
+	void permutation(int[] values){
+		for(int i=0; i<values.length; ++i){
+			values[i] = i;
+		}
+		for(int i=values.length - 1; i>0; --i){
+			int j = nextInt(i + 1);
+			int swap = values[i];
+			values[i] = values[j];
+			values[j] = swap;
+		}
+	}
+}
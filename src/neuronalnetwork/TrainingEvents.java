@@ -0,0 +1,91 @@
+package neuronalnetwork;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR events with the same figures as {@link TrainingStats}. They are
+ * duration events, so in a recording they span the epoch or the group of
+ * samples they describe.
+ */
+final class TrainingEvents {
+
+	private TrainingEvents(){
+	}
+
+	@Name("neuronalnetwork.Epoch")
+	@Label("Training Epoch")
+	@Category("Neuronal Network")
+	@Description("One training epoch, including the evaluation that follows it")
+	@StackTrace(false)
+	static final class Epoch extends Event {
+		@Label("Epoch")
+		int epoch;
+		@Label("Samples")
+		int samples;
+		@Label("Hits")
+		int hits;
+		@Label("Error Rate")
+		@Percentage
+		float errorRate;
+		@Label("Samples per Second")
+		double samplesPerSecond;
+		@Label("Forward")
+		@Timespan
+		long forward;
+		@Label("Evaluation")
+		@Timespan
+		long evaluation;
+		@Label("Test Error Rate")
+		@Percentage
+		float testErrorRate;
+		@Label("Allocation Rate")
+		@DataAmount(DataAmount.BYTES)
+		@Frequency
+		double allocationRate;
+	}
+
+	@Name("neuronalnetwork.Backpropagation")
+	@Label("Layer Backpropagation")
+	@Category("Neuronal Network")
+	@Description("Backpropagation and weight update time of one weight layer in an epoch, committed with the epoch")
+	@StackTrace(false)
+	static final class Backpropagation extends Event {
+		@Label("Epoch")
+		int epoch;
+		@Label("Layer")
+		@Description("Weight layer, 0 for the one fed by the image")
+		int layer;
+		@Label("Time")
+		@Timespan
+		long time;
+	}
+
+	@Name("neuronalnetwork.Progress")
+	@Label("Training Progress")
+	@Category("Neuronal Network")
+	@Description("A group of training samples within an epoch")
+	@StackTrace(false)
+	static final class Progress extends Event {
+		@Label("Epoch")
+		int epoch;
+		@Label("Samples")
+		int samples;
+		@Label("Hits")
+		int hits;
+		@Label("Samples per Second")
+		double samplesPerSecond;
+	}
+
+	static boolean enabled(){
+		return new Epoch().isEnabled() || new Backpropagation().isEnabled() || new Progress().isEnabled();
+	}
+}
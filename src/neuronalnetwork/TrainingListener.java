@@ -0,0 +1,27 @@
+package neuronalnetwork;
+
+/**
+ * Receives structured progress of {@link NeuralNetwork} training.
+ *
+ * Listeners are called on the training thread and should return quickly.
+ * With no listener registered (and no JFR recording of the training
+ * events) the network does not time its phases at all.
+ */
+public interface TrainingListener {
+
+	/**
+	 * Called every {@link NeuralNetwork#setProgressInterval(int)} samples
+	 * with the figures of the epoch so far.
+	 */
+	default void progress(TrainingStats stats){
+	}
+
+	/**
+	 * Called at the end of every epoch. During trainNetwork the stats
+	 * include the newest validation of the test set finished since the
+	 * previous epoch, if any; validations run in the background on a copy
+	 * of the weights, so it may belong to an earlier point of training.
+	 */
+	default void epochFinished(TrainingStats stats){
+	}
+}
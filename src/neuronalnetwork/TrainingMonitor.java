@@ -0,0 +1,190 @@
+package neuronalnetwork;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Collects the figures of {@link TrainingStats} for one network and hands
+ * them to its listeners and to JFR.
+ *
+ * The per-sample code only checks {@link #active}; phases are timed and
+ * progress is counted only while there is someone to report to.
+ */
+final class TrainingMonitor {
+	static final int FORWARD = 0;
+	static final int EVALUATION = 1;
+	/** Phase of weight layer 0; layer l is BACKPROPAGATION + l. */
+	static final int BACKPROPAGATION = 2;
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private final List<TrainingListener> listeners = new CopyOnWriteArrayList<>();
+	private int progressInterval = 10000;
+
+	/** Listeners or a JFR recording are waiting for this epoch. */
+	boolean active;
+	long[] phases = new long[BACKPROPAGATION];
+
+	private int epoch;
+	private boolean running;
+	private long start;
+	private long trainingEnd;
+	private long allocated;
+	private int samples;
+	private int hits;
+	private int nextProgress;
+	private long progressStart;
+	private int progressSamples;
+	private int testHits = -1;
+	private int testSamples;
+	private TrainingEvents.Epoch event;
+
+	void addListener(TrainingListener listener){
+		listeners.add(listener);
+	}
+
+	void removeListener(TrainingListener listener){
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Number the next epoch, for a training resumed from a checkpoint.
+	 */
+	void setEpoch(int epoch){
+		this.epoch = epoch;
+	}
+
+	void setProgressInterval(int samples){
+		if(samples < 1)
+			throw new IllegalArgumentException("Invalid progress interval " + samples);
+		progressInterval = samples;
+	}
+
+	/**
+	 * Start an epoch of a network with the given number of weight layers,
+	 * one backpropagation phase each.
+	 */
+	void startEpoch(int layers){
+		active = !listeners.isEmpty() || TrainingEvents.enabled();
+		running = true;
+		if(phases.length == BACKPROPAGATION + layers)
+			Arrays.fill(phases, 0L);
+		else
+			phases = new long[BACKPROPAGATION + layers];
+		samples = 0;
+		hits = 0;
+		testHits = -1;
+		testSamples = 0;
+		nextProgress = progressInterval;
+		progressSamples = 0;
+		if(active){
+			event = new TrainingEvents.Epoch();
+			event.begin();
+			allocated = allocatedBytes();
+		}
+		start = System.nanoTime();
+		progressStart = start;
+	}
+
+	/**
+	 * Total samples and hits of the epoch so far, called after every sample
+	 * or batch while active.
+	 */
+	void progress(int samples, int hits){
+		this.samples = samples;
+		this.hits = hits;
+		if(samples < nextProgress)
+			return;
+		nextProgress = samples - samples % progressInterval + progressInterval;
+		long now = System.nanoTime();
+		TrainingEvents.Progress event = new TrainingEvents.Progress();
+		if(event.shouldCommit()){
+			event.epoch = epoch;
+			event.samples = samples - progressSamples;
+			event.hits = hits;
+			event.samplesPerSecond = (samples - progressSamples) * 1e9 / Math.max(1, now - progressStart);
+			event.commit();
+		}
+		progressStart = now;
+		progressSamples = samples;
+		if(!listeners.isEmpty()){
+			TrainingStats stats = stats(now);
+			for(TrainingListener listener : listeners){
+				listener.progress(stats);
+			}
+		}
+	}
+
+	void endTraining(int samples, int hits){
+		this.samples = samples;
+		this.hits = hits;
+		trainingEnd = System.nanoTime();
+	}
+
+	/**
+	 * Record an evaluation run. It belongs to the current epoch until the
+	 * epoch is reported.
+	 */
+	void evaluated(int hits, int samples, long nanos){
+		if(!running)
+			return;
+		testHits = hits;
+		testSamples = samples;
+		phases[EVALUATION] += nanos;
+	}
+
+	void finishEpoch(){
+		if(!running)
+			return;
+		running = false;
+		if(active){
+			TrainingStats stats = stats(trainingEnd);
+			if(event.shouldCommit()){
+				event.epoch = epoch;
+				event.samples = samples;
+				event.hits = hits;
+				event.errorRate = stats.getErrorRate();
+				event.samplesPerSecond = stats.getSamplesPerSecond();
+				event.forward = stats.getForwardNanos();
+				event.evaluation = stats.getEvaluationNanos();
+				event.testErrorRate = stats.getTestErrorRate();
+				event.allocationRate = stats.getAllocationRate();
+				event.commit();
+			}
+			event = null;
+			for(int l=0; l<stats.getLayers(); ++l){
+				TrainingEvents.Backpropagation layer = new TrainingEvents.Backpropagation();
+				if(layer.shouldCommit()){
+					layer.epoch = epoch;
+					layer.layer = l;
+					layer.time = stats.getBackpropagationNanos(l);
+					layer.commit();
+				}
+			}
+			for(TrainingListener listener : listeners){
+				listener.epochFinished(stats);
+			}
+		}
+		epoch++;
+	}
+
+	private TrainingStats stats(long trainingTime){
+		long now = System.nanoTime();
+		long bytes = allocatedBytes();
+		double rate = (bytes < 0 || allocated < 0) ? Double.NaN : (bytes - allocated) * 1e9 / Math.max(1, now - start);
+		return new TrainingStats(epoch, samples, hits, trainingTime - start, phases,
+				testHits, testSamples, rate);
+	}
+
+	private static long allocatedBytes(){
+		if(THREADS instanceof com.sun.management.ThreadMXBean){
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+			if(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled())
+				return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
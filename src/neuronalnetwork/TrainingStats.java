@@ -0,0 +1,121 @@
+package neuronalnetwork;
+
+import java.util.Locale;
+
+/**
+ * Snapshot of the training progress of one epoch, as passed to a
+ * {@link TrainingListener}.
+ *
+ * Phase times are wall-clock nanoseconds spent on the training thread.
+ * Multi-threaded epochs (parallel mini-batches and Hogwild) only report
+ * the total time and the evaluation time.
+ */
+public final class TrainingStats {
+	private final int epoch;
+	private final int samples;
+	private final int hits;
+	private final long elapsedNanos;
+	private final long[] phaseNanos;
+	private final int testHits;
+	private final int testSamples;
+	private final double allocationRate;
+
+	TrainingStats(int epoch, int samples, int hits, long elapsedNanos, long[] phaseNanos,
+			int testHits, int testSamples, double allocationRate){
+		this.epoch = epoch;
+		this.samples = samples;
+		this.hits = hits;
+		this.elapsedNanos = elapsedNanos;
+		this.phaseNanos = phaseNanos.clone();
+		this.testHits = testHits;
+		this.testSamples = testSamples;
+		this.allocationRate = allocationRate;
+	}
+
+	/** Epoch number, starting at 0 for each network. */
+	public int getEpoch(){
+		return epoch;
+	}
+
+	/** Training samples processed so far in the epoch. */
+	public int getSamples(){
+		return samples;
+	}
+
+	/** Training samples classified correctly before their weight update. */
+	public int getHits(){
+		return hits;
+	}
+
+	public float getErrorRate(){
+		return (samples == 0) ? Float.NaN : 1f - (float) hits / samples;
+	}
+
+	/** Wall-clock training time of the epoch so far, evaluation excluded. */
+	public long getElapsedNanos(){
+		return elapsedNanos;
+	}
+
+	public double getSamplesPerSecond(){
+		return (elapsedNanos == 0) ? 0 : samples * 1e9 / elapsedNanos;
+	}
+
+	public long getForwardNanos(){
+		return phaseNanos[TrainingMonitor.FORWARD];
+	}
+
+	/** Weight layers of the network, including the output layer. */
+	public int getLayers(){
+		return phaseNanos.length - TrainingMonitor.BACKPROPAGATION;
+	}
+
+	/**
+	 * Backpropagation and weight update time of one weight layer, from 0
+	 * for the input layer to {@link #getLayers()} - 1 for the output layer.
+	 */
+	public long getBackpropagationNanos(int layer){
+		if(layer < 0 || layer >= getLayers())
+			throw new IllegalArgumentException("Invalid layer " + layer + " of " + getLayers());
+		return phaseNanos[TrainingMonitor.BACKPROPAGATION + layer];
+	}
+
+	/**
+	 * Time the training thread spent on evaluation of the test set: the
+	 * whole evaluation when run directly, only taking the weight snapshot
+	 * when validated in the background. 0 when the epoch had none.
+	 */
+	public long getEvaluationNanos(){
+		return phaseNanos[TrainingMonitor.EVALUATION];
+	}
+
+	/** Test set hits, or -1 when the epoch had no evaluation. */
+	public int getTestHits(){
+		return testHits;
+	}
+
+	public float getTestErrorRate(){
+		return (testSamples <= 0) ? Float.NaN : 1f - (float) testHits / testSamples;
+	}
+
+	/**
+	 * Bytes allocated per second by the training thread, NaN when the JVM
+	 * cannot measure it.
+	 */
+	public double getAllocationRate(){
+		return allocationRate;
+	}
+
+	@Override
+	public String toString(){
+		StringBuilder backpropagation = new StringBuilder();
+		for(int l=0; l<getLayers(); ++l){
+			if(l > 0)
+				backpropagation.append('/');
+			backpropagation.append(String.format(Locale.ROOT, "%.3fs", getBackpropagationNanos(l) / 1e9));
+		}
+		return String.format(Locale.ROOT,
+				"epoch %d: %d samples, error %.2f%%, %.0f samples/s, forward %.3fs, backprop %s, evaluation %.3fs, test error %.2f%%, %.1f MB/s allocated",
+				epoch, samples, getErrorRate() * 100, getSamplesPerSecond(), getForwardNanos() / 1e9,
+				backpropagation, getEvaluationNanos() / 1e9, getTestErrorRate() * 100, allocationRate / 1e6);
+	}
+}
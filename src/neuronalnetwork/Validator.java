@@ -0,0 +1,234 @@
+package neuronalnetwork;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Validation of weight snapshots on a background thread while training
+ * goes on.
+ *
+ * The trainer counts its samples and epochs here, and when the cadence
+ * says so it hands over a snapshot, a network with its own copy of the
+ * weights, and keeps training. One snapshot is validated at a time:
+ * {@link #submit(NeuralNetwork)} only waits if the previous one is still
+ * running. Every result updates the best error rate; with a patience, that
+ * many results in a row without improving it ask for an early stop, which
+ * a later improvement withdraws if the trainer has not stopped yet. The
+ * best snapshot is kept so its weights can be restored at the end.
+ *
+ * The trainer only sees the results when it submits the next snapshot,
+ * after waiting for the previous one: {@link #stopRequested()} and
+ * {@link #poll()} reflect every snapshot but the last submitted, however
+ * fast the validation thread is. A stop thus takes effect one cadence
+ * after the snapshot that asked for it, and a training with the same seed
+ * always stops at the same sample.
+ *
+ * Every result also records the wall-clock time from the start of the
+ * training to its snapshot, so the first result that reaches a target
+ * accuracy tells how long a usable model took, evaluation excluded.
+ */
+final class Validator implements AutoCloseable {
+
+	static final class Result {
+		final int epoch;
+		final long samples;
+		final int hits;
+		final int size;
+		/** Wall-clock time from the start of the training to the snapshot. */
+		final long nanos;
+
+		Result(int epoch, long samples, int hits, int size, long nanos){
+			this.epoch = epoch;
+			this.samples = samples;
+			this.hits = hits;
+			this.size = size;
+			this.nanos = nanos;
+		}
+
+		float errorRate(){
+			return (size == 0) ? Float.NaN : 1f - (float) hits / size;
+		}
+	}
+
+	private final Dataset data;
+	private final int epochInterval;
+	private final int sampleInterval;
+	private final int patience;
+	private final boolean keepBest;
+	private final float target;
+	private final long started = System.nanoTime();
+	private final ExecutorService executor;
+	private Future<?> pending;
+	private int epoch;
+	private long samples;
+	private int untilNext;
+	private Result reported;
+	private Result settled;
+	private boolean stopping;
+
+	/* Written by the validation thread, read after waiting for it */
+	private Result latest;
+	private boolean stop;
+	private Result best;
+	private NeuralNetwork bestNetwork;
+	private int sinceBest;
+	private Result reached;
+
+	/**
+	 * @param epochInterval Validate every that many epochs
+	 * @param sampleInterval Validate every that many samples instead, 0 to
+	 *        follow the epochs
+	 * @param patience Results without improvement before asking for a stop,
+	 *        0 to never stop
+	 * @param keepBest Keep the best snapshot
+	 * @param target Accuracy whose first result is reported, 0 for none
+	 */
+	Validator(Dataset data, int epochInterval, int sampleInterval, int patience, boolean keepBest, float target){
+		this.data = data;
+		this.epochInterval = epochInterval;
+		this.sampleInterval = sampleInterval;
+		this.patience = patience;
+		this.keepBest = keepBest;
+		this.target = target;
+		this.untilNext = sampleInterval;
+		executor = Executors.newSingleThreadExecutor(task -> {
+			Thread thread = new Thread(task, "neuronalnetwork-validation");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Go on from the samples trained before a resumed training, keeping the
+	 * sample cadence.
+	 */
+	void resume(long samples){
+		this.samples = samples;
+		if(sampleInterval > 0)
+			untilNext = sampleInterval - (int) (samples % sampleInterval);
+	}
+
+	void startEpoch(int epoch){
+		this.epoch = epoch;
+	}
+
+	/**
+	 * Count trained samples.
+	 *
+	 * @return Whether a snapshot is due
+	 */
+	boolean trained(int count){
+		samples += count;
+		if(sampleInterval == 0 || (untilNext -= count) > 0)
+			return false;
+		untilNext = sampleInterval;
+		return true;
+	}
+
+	/**
+	 * @return Whether a snapshot is due at the end of the current epoch
+	 */
+	boolean epochFinished(){
+		return sampleInterval == 0 && (epoch + 1) % epochInterval == 0;
+	}
+
+	/**
+	 * Validate a snapshot in the background. The validator owns it from now
+	 * on.
+	 */
+	void submit(NeuralNetwork snapshot){
+		await();
+		settled = latest;
+		stopping = stop;
+		final int epoch = this.epoch;
+		final long samples = this.samples;
+		final long nanos = System.nanoTime() - started;
+		pending = executor.submit(() -> validate(snapshot, epoch, samples, nanos));
+	}
+
+	/**
+	 * Whether the patience ran out, as of the last submit.
+	 */
+	boolean stopRequested(){
+		return stopping;
+	}
+
+	/**
+	 * Newest result as of the last submit not returned yet, or null.
+	 */
+	Result poll(){
+		Result result = settled;
+		if(result == reported)
+			return null;
+		reported = result;
+		return result;
+	}
+
+	/**
+	 * Wait for the pending validation.
+	 */
+	void await(){
+		if(pending == null)
+			return;
+		try{
+			pending.get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Training interrupted", e);
+		}catch(ExecutionException e){
+			throw new IllegalStateException("Validation failed", e.getCause());
+		}finally{
+			pending = null;
+		}
+	}
+
+	/**
+	 * Best result so far, after {@link #await()}.
+	 */
+	Result best(){
+		return best;
+	}
+
+	/**
+	 * First result that reached the target accuracy, or null, after
+	 * {@link #await()}.
+	 */
+	Result reached(){
+		return reached;
+	}
+
+	/**
+	 * Snapshot of the best result when kept, after {@link #await()}.
+	 */
+	NeuralNetwork bestNetwork(){
+		return bestNetwork;
+	}
+
+	@Override
+	public void close(){
+		executor.shutdownNow();
+	}
+
+	private void validate(NeuralNetwork snapshot, int epoch, long samples, long nanos){
+		Result result = new Result(epoch, samples, snapshot.validate(data), data.size(), nanos);
+		System.out.println(String.format(Locale.US, " Validacin (poca %d, %d muestras) -> Aciertos: %d, Tasa de error: %.2f%%",
+				epoch, samples, result.hits, result.errorRate() * 100));
+		if(target > 0f && reached == null && 1f - result.errorRate() >= target){
+			reached = result;
+			System.out.println(String.format(Locale.US, " Objetivo del %.2f%% de aciertos alcanzado en %.1f s (poca %d, %d muestras)",
+					target * 100, nanos / 1e9, epoch, samples));
+		}
+		if(best == null || result.errorRate() < best.errorRate()){
+			best = result;
+			bestNetwork = keepBest ? snapshot : null;
+			sinceBest = 0;
+			stop = false;
+		}else if(patience > 0 && ++sinceBest >= patience){
+			stop = true;
+		}
+		latest = result;
+	}
+}
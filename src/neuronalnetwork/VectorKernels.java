@@ -0,0 +1,212 @@
+package neuronalnetwork;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels written with the incubating Vector API. The (-1, 1) clip of the
+ * weight update is a masked blend instead of a branch. Loop tails shorter
+ * than a vector run as scalar loops: masked loads and stores are much
+ * slower on JDK 17, and the sparse input layer calls these kernels on
+ * short pixel segments.
+ *
+ * Needs --add-modules jdk.incubator.vector at compile and run time.
+ */
+final class VectorKernels extends Kernels {
+	private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+	// Tantos bytes como enteros tiene INTS, para ensancharlos de una vez
+	private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class, VectorShape.forBitSize(INTS.length() * Byte.SIZE));
+	// Tantos bfloat16 como floats tiene SPECIES
+	private static final VectorSpecies<Short> SHORTS = VectorSpecies.of(short.class, VectorShape.forBitSize(SPECIES.length() * Short.SIZE));
+	private static final VectorSpecies<Integer> WIDE = VectorSpecies.of(int.class, SPECIES.vectorShape());
+
+	@Override
+	float dot(float[] a, int aOffset, float[] b, int bOffset, int length){
+		FloatVector sum = FloatVector.zero(SPECIES);
+		int k = 0;
+		int bound = SPECIES.loopBound(length);
+		for(; k<bound; k+=SPECIES.length()){
+			FloatVector va = FloatVector.fromArray(SPECIES, a, aOffset + k);
+			FloatVector vb = FloatVector.fromArray(SPECIES, b, bOffset + k);
+			sum = sum.add(va.mul(vb));
+		}
+		float tail = 0f;
+		for(; k<length; ++k){
+			tail += a[aOffset + k] * b[bOffset + k];
+		}
+		return sum.reduceLanes(VectorOperators.ADD) + tail;
+	}
+
+	@Override
+	float dot(short[] a, int aOffset, float[] b, int bOffset, int length){
+		FloatVector sum = FloatVector.zero(SPECIES);
+		int k = 0;
+		int bound = SPECIES.loopBound(length);
+		for(; k<bound; k+=SPECIES.length()){
+			FloatVector va = ((IntVector) ShortVector.fromArray(SHORTS, a, aOffset + k)
+					.convertShape(VectorOperators.S2I, WIDE, 0))
+					.lanewise(VectorOperators.LSHL, 16).reinterpretAsFloats();
+			FloatVector vb = FloatVector.fromArray(SPECIES, b, bOffset + k);
+			sum = sum.add(va.mul(vb));
+		}
+		float tail = 0f;
+		for(; k<length; ++k){
+			tail += Bfloat16.toFloat(a[aOffset + k]) * b[bOffset + k];
+		}
+		return sum.reduceLanes(VectorOperators.ADD) + tail;
+	}
+
+	@Override
+	void dot4(float[] a, int aOffset, float[] b, int bOffset, int bStride, int length,
+			float[] out, int outOffset, int outStride){
+		int b1 = bOffset + bStride;
+		int b2 = b1 + bStride;
+		int b3 = b2 + bStride;
+		FloatVector sum0 = FloatVector.zero(SPECIES);
+		FloatVector sum1 = sum0, sum2 = sum0, sum3 = sum0;
+		int k = 0;
+		int bound = SPECIES.loopBound(length);
+		for(; k<bound; k+=SPECIES.length()){
+			FloatVector va = FloatVector.fromArray(SPECIES, a, aOffset + k);
+			sum0 = sum0.add(va.mul(FloatVector.fromArray(SPECIES, b, bOffset + k)));
+			sum1 = sum1.add(va.mul(FloatVector.fromArray(SPECIES, b, b1 + k)));
+			sum2 = sum2.add(va.mul(FloatVector.fromArray(SPECIES, b, b2 + k)));
+			sum3 = sum3.add(va.mul(FloatVector.fromArray(SPECIES, b, b3 + k)));
+		}
+		float tail0 = 0f, tail1 = 0f, tail2 = 0f, tail3 = 0f;
+		for(; k<length; ++k){
+			float x = a[aOffset + k];
+			tail0 += x * b[bOffset + k];
+			tail1 += x * b[b1 + k];
+			tail2 += x * b[b2 + k];
+			tail3 += x * b[b3 + k];
+		}
+		out[outOffset] = sum0.reduceLanes(VectorOperators.ADD) + tail0;
+		out[outOffset + outStride] = sum1.reduceLanes(VectorOperators.ADD) + tail1;
+		out[outOffset + 2 * outStride] = sum2.reduceLanes(VectorOperators.ADD) + tail2;
+		out[outOffset + 3 * outStride] = sum3.reduceLanes(VectorOperators.ADD) + tail3;
+	}
+
+	@Override
+	void accumulate(byte[] weights, int offset, int factor, int[] sums, int length){
+		int k = 0;
+		int bound = INTS.loopBound(length);
+		for(; k<bound; k+=INTS.length()){
+			IntVector w = (IntVector) ByteVector.fromArray(BYTES, weights, offset + k)
+					.convertShape(VectorOperators.B2I, INTS, 0);
+			IntVector.fromArray(INTS, sums, k).add(w.mul(factor)).intoArray(sums, k);
+		}
+		for(; k<length; ++k){
+			sums[k] += weights[offset + k] * factor;
+		}
+	}
+
+	@Override
+	void momentum(float[] error, int errorOffset, float[] in, int inOffset, int length,
+			float delta, float learningRate, float momentum){
+		int k = 0;
+		int bound = SPECIES.loopBound(length);
+		for(; k<bound; k+=SPECIES.length()){
+			FloatVector x = FloatVector.fromArray(SPECIES, in, inOffset + k);
+			FloatVector e = FloatVector.fromArray(SPECIES, error, errorOffset + k);
+			x.mul(delta).mul(learningRate).add(e.mul(momentum))
+				.intoArray(error, errorOffset + k);
+		}
+		for(; k<length; ++k){
+			error[errorOffset + k] = (delta * in[inOffset + k] * learningRate) 
+					+ momentum * error[errorOffset + k];
+		}
+	}
+
+	@Override
+	void update(float[] weights, float[] error, float[] gradient, float learningRate, float momentum){
+		int length = weights.length;
+		int k = 0;
+		int bound = SPECIES.loopBound(length);
+		for(; k<bound; k+=SPECIES.length()){
+			FloatVector g = FloatVector.fromArray(SPECIES, gradient, k);
+			FloatVector e = FloatVector.fromArray(SPECIES, error, k);
+			e = g.mul(learningRate).add(e.mul(momentum));
+			e.intoArray(error, k);
+			clip(weights, e, k);
+		}
+		float weightSum;
+		for(; k<length; ++k){
+			error[k] = (gradient[k] * learningRate) + momentum * error[k];
+			weightSum = weights[k] + error[k];
+			if(weightSum < 1f && weightSum > -1f){
+				weights[k] = weightSum;
+			}
+		}
+	}
+
+	@Override
+	void adjust(float[] weights, float[] error, int offset, int length){
+		int k = 0;
+		int bound = SPECIES.loopBound(length);
+		for(; k<bound; k+=SPECIES.length()){
+			clip(weights, FloatVector.fromArray(SPECIES, error, offset + k), offset + k);
+		}
+		float weightSum;
+		for(; k<length; ++k){
+			weightSum = weights[offset + k] + error[offset + k];
+			if(weightSum < 1f && weightSum > -1f){
+				weights[offset + k] = weightSum;
+			}
+		}
+	}
+
+	@Override
+	void fused(float[] weights, float[] error, int offset, float[] in, int inOffset, int length,
+			float delta, float learningRate, float momentum, float[] back, int backOffset){
+		int k = 0;
+		int bound = SPECIES.loopBound(length);
+		for(; k<bound; k+=SPECIES.length()){
+			FloatVector w = FloatVector.fromArray(SPECIES, weights, offset + k);
+			if(back != null){
+				FloatVector.fromArray(SPECIES, back, backOffset + k).add(w.mul(delta))
+					.intoArray(back, backOffset + k);
+			}
+			FloatVector x = FloatVector.fromArray(SPECIES, in, inOffset + k);
+			FloatVector e = FloatVector.fromArray(SPECIES, error, offset + k);
+			e = x.mul(delta).mul(learningRate).add(e.mul(momentum));
+			e.intoArray(error, offset + k);
+			FloatVector sum = w.add(e);
+			VectorMask<Float> inside = sum.compare(VectorOperators.LT, 1f)
+					.and(sum.compare(VectorOperators.GT, -1f));
+			w.blend(sum, inside).intoArray(weights, offset + k);
+		}
+		float weightSum;
+		for(; k<length; ++k){
+			int i = offset + k;
+			if(back != null){
+				back[backOffset + k] = back[backOffset + k] + delta * weights[i];
+			}
+			error[i] = (delta * in[inOffset + k] * learningRate) + momentum * error[i];
+			weightSum = weights[i] + error[i];
+			if(weightSum < 1f && weightSum > -1f){
+				weights[i] = weightSum;
+			}
+		}
+	}
+
+	private static void clip(float[] weights, FloatVector error, int offset){
+		FloatVector w = FloatVector.fromArray(SPECIES, weights, offset);
+		FloatVector sum = w.add(error);
+		VectorMask<Float> inside = sum.compare(VectorOperators.LT, 1f)
+				.and(sum.compare(VectorOperators.GT, -1f));
+		w.blend(sum, inside).intoArray(weights, offset);
+	}
+
+	@Override
+	String name(){
+		return "vector(" + SPECIES.length() + "x float)";
+	}
+}